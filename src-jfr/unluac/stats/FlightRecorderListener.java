@@ -0,0 +1,151 @@
+package unluac.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import unluac.parse.LFunction;
+
+/**
+ * Emits Java Flight Recorder events for chunk parses, function decompiles,
+ * control flow passes and output flushes. Each event type has a default
+ * threshold below which it isn't recorded; it can be changed through the
+ * recording's settings like that of any JDK event.
+ *
+ * Install it on a fresh Instrumentation for each run, since the
+ * instrumentation also keeps per-function totals.
+ */
+public class FlightRecorderListener implements StageListener {
+
+  @Name("unluac.ChunkParse")
+  @Label("Chunk Parse")
+  @Category("unluac")
+  @Threshold("1 ms")
+  static class ChunkParseEvent extends Event {
+    @Label("Bytes")
+    long bytes;
+  }
+
+  @Name("unluac.FunctionDecompile")
+  @Label("Function Decompile")
+  @Description("Control flow analysis and statement building for one function")
+  @Category("unluac")
+  @Threshold("10 ms")
+  static class FunctionDecompileEvent extends Event {
+    @Label("Function")
+    String function;
+    @Label("Instructions")
+    int instructions;
+    @Label("Blocks")
+    long blocks;
+  }
+
+  @Name("unluac.ControlFlowPass")
+  @Label("Control Flow Pass")
+  @Category("unluac")
+  @Threshold("1 ms")
+  static class ControlFlowPassEvent extends Event {
+    @Label("Pass")
+    String pass;
+    @Label("Function")
+    String function;
+  }
+
+  @Name("unluac.OutputFlush")
+  @Label("Output Flush")
+  @Category("unluac")
+  @Threshold("1 ms")
+  static class OutputFlushEvent extends Event {
+  }
+
+  private final List<Stage> stages = new ArrayList<Stage>();
+  private final List<Event> events = new ArrayList<Event>();
+
+  @Override
+  public void stageStarted(Stage stage, LFunction function) {
+    Event event = create(stage);
+    if(event != null) {
+      event.begin();
+      stages.add(stage);
+      events.add(event);
+    }
+  }
+
+  @Override
+  public void stageCompleted(Stage stage, LFunction function, long time, long allocated, long items) {
+    int index = stages.lastIndexOf(stage);
+    if(index == -1) return;
+    Event event = events.get(index);
+    // events left open above it by an exception are dropped
+    while(stages.size() > index) {
+      stages.remove(stages.size() - 1);
+      events.remove(events.size() - 1);
+    }
+    event.end();
+    if(!event.shouldCommit()) return;
+    if(event instanceof ChunkParseEvent) {
+      ((ChunkParseEvent) event).bytes = items;
+    } else if(event instanceof FunctionDecompileEvent) {
+      FunctionDecompileEvent e = (FunctionDecompileEvent) event;
+      e.function = path(function);
+      e.instructions = function != null ? function.code.length : 0;
+      e.blocks = items;
+    } else if(event instanceof ControlFlowPassEvent) {
+      ControlFlowPassEvent e = (ControlFlowPassEvent) event;
+      e.pass = stage.name;
+      e.function = path(function);
+    }
+    event.commit();
+  }
+
+  private static Event create(Stage stage) {
+    switch(stage) {
+      case PARSE:
+        return new ChunkParseEvent();
+      case DECOMPILE:
+        return new FunctionDecompileEvent();
+      case FLUSH:
+        return new OutputFlushEvent();
+      case FIND_REVERSE_TARGETS:
+      case FIND_BRANCHES:
+      case COMBINE_BRANCHES:
+      case RESOLVE_LINES:
+      case INITIALIZE_BLOCKS:
+      case FIND_FIXED_BLOCKS:
+      case FIND_WHILE_LOOPS:
+      case FIND_REPEAT_LOOPS:
+      case FIND_IF_BREAK:
+      case FIND_SET_BLOCKS:
+      case FIND_PSEUDO_GOTO_STATEMENTS:
+      case FIND_DO_BLOCKS:
+        return new ControlFlowPassEvent();
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * The function's name in disassembler notation (main/f0/f1...).
+   */
+  private static String path(LFunction function) {
+    if(function == null) {
+      return null;
+    } else if(function.parent == null) {
+      return "main";
+    } else {
+      LFunction[] siblings = function.parent.functions;
+      for(int i = 0; i < siblings.length; i++) {
+        if(siblings[i] == function) {
+          return path(function.parent) + "/f" + i;
+        }
+      }
+      return path(function.parent) + "/?";
+    }
+  }
+
+}
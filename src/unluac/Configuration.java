@@ -3,8 +3,13 @@ package unluac;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
+import unluac.cache.ResultCache;
 import unluac.decompile.FileOutputProvider;
 import unluac.decompile.Output;
+import unluac.parse.LHeader;
+import unluac.parse.MapProfile;
+import unluac.stats.Instrumentation;
+import unluac.util.HashUtils;
 
 public class Configuration {
 
@@ -12,6 +17,14 @@ public class Configuration {
     DECOMPILE,
     DISASSEMBLE,
     ASSEMBLE,
+    TRANSCODE,
+    SCAN,
+    MEMSTATS,
+    INFER,
+    INDEX,
+    INCREMENTAL,
+    QUERY,
+    DIFF,
     HELP,
     VERSION,
   }
@@ -31,6 +44,18 @@ public class Configuration {
   public String opmap;
   public String output;
   public boolean miwifi;
+  public boolean strip;
+  public LHeader.LEndianness endianness;
+  public int int_size;
+  public int size_t_size;
+  public String index;
+  public String manifest;
+  public String cache;
+  public long cachelimit;
+  public boolean intern;
+  public boolean showsource;
+  public Instrumentation instrumentation;
+  public String stats;
   
   public Configuration() {
     rawstring = false;
@@ -41,6 +66,18 @@ public class Configuration {
     opmap = null;
     output = null;
     miwifi = false;
+    strip = false;
+    endianness = null;
+    int_size = -1;
+    size_t_size = -1;
+    index = null;
+    manifest = null;
+    cache = null;
+    cachelimit = ResultCache.DEFAULT_LIMIT;
+    intern = false;
+    showsource = false;
+    instrumentation = Instrumentation.NONE;
+    stats = null;
   }
   
   public Configuration(Configuration other) {
@@ -48,9 +85,41 @@ public class Configuration {
     mode = other.mode;
     variable = other.variable;
     strict_scope = other.strict_scope;
+    luaj = other.luaj;
+    typemap = other.typemap;
     opmap = other.opmap;
     output = other.output;
     miwifi = other.miwifi;
+    strip = other.strip;
+    endianness = other.endianness;
+    int_size = other.int_size;
+    size_t_size = other.size_t_size;
+    index = other.index;
+    manifest = other.manifest;
+    cache = other.cache;
+    cachelimit = other.cachelimit;
+    intern = other.intern;
+    showsource = other.showsource;
+    instrumentation = other.instrumentation;
+    stats = other.stats;
+  }
+  
+  /**
+   * A hash of the unluac version and of the options that change the output
+   * for a given chunk. Map files are identified by their contents.
+   */
+  public String getFingerprint() throws IOException {
+    StringBuilder b = new StringBuilder();
+    b.append(Main.version);
+    b.append('|').append(mode);
+    b.append('|').append(rawstring);
+    b.append('|').append(variable);
+    b.append('|').append(strict_scope);
+    b.append('|').append(luaj);
+    b.append('|').append(miwifi);
+    b.append('|').append(typemap != null ? MapProfile.get(typemap).hash : "");
+    b.append('|').append(opmap != null ? MapProfile.get(opmap).hash : "");
+    return HashUtils.toHexString(HashUtils.sha256().digest(b.toString().getBytes("UTF-8")), 8);
   }
   
   public Output getOutput() {
@@ -1,7 +1,10 @@
 package unluac;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -9,18 +12,40 @@ import java.io.PrintStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import unluac.Configuration.Mode;
+import unluac.archive.ArchiveDecompiler;
 import unluac.assemble.Assembler;
 import unluac.assemble.AssemblerException;
+import unluac.batch.IncrementalBatch;
+import unluac.cache.ResultCache;
 import unluac.decompile.Decompiler;
 import unluac.decompile.Disassembler;
 import unluac.decompile.FileOutputProvider;
+import unluac.decompile.OpcodeInference;
 import unluac.decompile.Output;
+import unluac.diff.ChunkDiff;
+import unluac.index.SymbolIndex;
 import unluac.parse.BHeader;
+import unluac.parse.ChunkReader;
+import unluac.parse.ChunkStatistics;
 import unluac.parse.LFunction;
+import unluac.parse.LHeader;
+import unluac.parse.Transcoder;
+import unluac.parse.TranscoderException;
+import unluac.stats.Instrumentation;
+import unluac.stats.MemoryStatistics;
+import unluac.stats.Stage;
+import unluac.stats.StageListener;
 import unluac.util.FileUtils;
+import unluac.util.StringUtils;
 
 public class Main {
 
@@ -28,10 +53,11 @@ public class Main {
   
   public static void main(String[] args) {
     String fn = null;
+    List<String> extra = new ArrayList<String>();
     Configuration config = new Configuration();
     for(int i = 0; i < args.length; i++) {
       String arg = args[i];
-      if(arg.startsWith("-")) {
+      if(arg.startsWith("-") && !arg.equals("-")) {
         // option
         if(arg.equals("--rawstring")) {
           config.rawstring = true;
@@ -43,6 +69,107 @@ public class Main {
           config.mode = Mode.DISASSEMBLE;
         } else if(arg.equals("--assemble")) {
           config.mode = Mode.ASSEMBLE;
+        } else if(arg.equals("--scan")) {
+          config.mode = Mode.SCAN;
+        } else if(arg.equals("--memstats")) {
+          config.mode = Mode.MEMSTATS;
+        } else if(arg.equals("--inferopmap")) {
+          config.mode = Mode.INFER;
+        } else if(arg.equals("--diff")) {
+          config.mode = Mode.DIFF;
+        } else if(arg.equals("--showsource")) {
+          config.showsource = true;
+        } else if(arg.equals("--intern")) {
+          config.intern = true;
+        } else if(arg.equals("--index") || arg.equals("--query")) {
+          if(i + 1 < args.length) {
+            config.mode = arg.equals("--index") ? Mode.INDEX : Mode.QUERY;
+            config.index = args[i + 1];
+            i++;
+          } else {
+            error("option \"" + arg + "\" doesn't have an argument", true);
+          }
+        } else if(arg.equals("--cache")) {
+          if(i + 1 < args.length) {
+            config.cache = args[i + 1];
+            i++;
+          } else {
+            error("option \"" + arg + "\" doesn't have an argument", true);
+          }
+        } else if(arg.equals("--cachelimit")) {
+          if(i + 1 < args.length) {
+            long limit = 0;
+            try {
+              limit = Long.parseLong(args[i + 1]);
+            } catch(NumberFormatException e) {
+              // reported below
+            }
+            if(limit <= 0 || limit > Long.MAX_VALUE >> 20) {
+              error("option \"" + arg + "\" has an illegal argument: " + args[i + 1], true);
+            }
+            config.cachelimit = limit << 20;
+            i++;
+          } else {
+            error("option \"" + arg + "\" doesn't have an argument", true);
+          }
+        } else if(arg.equals("--incremental")) {
+          if(i + 1 < args.length) {
+            config.mode = Mode.INCREMENTAL;
+            config.manifest = args[i + 1];
+            i++;
+          } else {
+            error("option \"" + arg + "\" doesn't have an argument", true);
+          }
+        } else if(arg.equals("--jfr")) {
+          if(!config.instrumentation.isEnabled()) {
+            config.instrumentation = new Instrumentation();
+          }
+          config.instrumentation.addListener(flight_recorder_listener());
+        } else if(arg.equals("--stats")) {
+          if(i + 1 < args.length) {
+            config.stats = args[i + 1];
+            if(!config.instrumentation.isEnabled()) {
+              config.instrumentation = new Instrumentation();
+            }
+            i++;
+          } else {
+            error("option \"" + arg + "\" doesn't have an argument", true);
+          }
+        } else if(arg.equals("--transcode")) {
+          config.mode = Mode.TRANSCODE;
+        } else if(arg.equals("--strip")) {
+          config.strip = true;
+        } else if(arg.equals("--endianness")) {
+          if(i + 1 < args.length) {
+            String endianness = args[i + 1];
+            if(endianness.equals("little")) {
+              config.endianness = LHeader.LEndianness.LITTLE;
+            } else if(endianness.equals("big")) {
+              config.endianness = LHeader.LEndianness.BIG;
+            } else {
+              error("unknown endianness: " + endianness, true);
+            }
+            i++;
+          } else {
+            error("option \"" + arg + "\" doesn't have an argument", true);
+          }
+        } else if(arg.equals("--intsize") || arg.equals("--sizetsize")) {
+          if(i + 1 < args.length) {
+            int size = -1;
+            try {
+              size = Integer.parseInt(args[i + 1]);
+            } catch(NumberFormatException e) {
+              error("option \"" + arg + "\" expects a number", true);
+            }
+            if(arg.equals("--intsize")) {
+              config.int_size = size;
+            } else {
+              config.size_t_size = size;
+            }
+            i++;
+          } else {
+            error("option \"" + arg + "\" doesn't have an argument", true);
+          }
         } else if(arg.equals("--help")) {
           config.mode = Mode.HELP;
         } else if(arg.equals("--version")) {
@@ -76,9 +203,18 @@ public class Main {
       } else if(fn == null) {
         fn = arg;
       } else {
-        error("too many arguments: " + arg, true);
+        extra.add(arg);
       }
     }
+    if(config.mode == Mode.DIFF) {
+      if(fn != null && extra.isEmpty()) {
+        error("diff mode requires two input files", true);
+      } else if(extra.size() > 1) {
+        error("too many arguments: " + extra.get(1), true);
+      }
+    } else if(!extra.isEmpty() && config.mode != Mode.SCAN && config.mode != Mode.MEMSTATS && config.mode != Mode.INFER && config.mode != Mode.INDEX && config.mode != Mode.INCREMENTAL) {
+      error("too many arguments: " + extra.get(0), true);
+    }
     if(fn == null && config.mode != Mode.HELP && config.mode != Mode.VERSION) {
       error("no input file provided", true);
     } else {
@@ -90,6 +226,16 @@ public class Main {
         System.out.println(version);
         break;
       case DECOMPILE: {
+        if(ArchiveDecompiler.isArchive(new File(fn))) {
+          archive(fn, config);
+          break;
+        } else if(is_stream(fn)) {
+          stream(fn, config);
+          break;
+        } else if(config.cache != null) {
+          cached(fn, config);
+          break;
+        }
         LFunction lmain = null;
         try {
           lmain = file_to_function(fn, config);
@@ -100,10 +246,23 @@ public class Main {
         Decompiler.State result = d.decompile();
         Output output = config.getOutput();
         d.print(result, output);
+        config.instrumentation.begin(Stage.FLUSH, null);
         output.finish();
+        config.instrumentation.end(Stage.FLUSH);
+        write_stats(fn, lmain, config);
         break;
       }
       case DISASSEMBLE: {
+        if(ArchiveDecompiler.isArchive(new File(fn))) {
+          archive(fn, config);
+          break;
+        } else if(is_stream(fn)) {
+          stream(fn, config);
+          break;
+        } else if(config.cache != null) {
+          cached(fn, config);
+          break;
+        }
         LFunction lmain = null;
         try {
           lmain = file_to_function(fn, config);
@@ -113,7 +272,10 @@ public class Main {
         Disassembler d = new Disassembler(lmain);
         Output output = config.getOutput();
         d.disassemble(output);
+        config.instrumentation.begin(Stage.FLUSH, null);
         output.finish();
+        config.instrumentation.end(Stage.FLUSH);
+        write_stats(fn, lmain, config);
         break;
       }
       case ASSEMBLE: {
@@ -121,12 +283,15 @@ public class Main {
           error("assembler mode requires an output file", true);
         } else {
           try {
+            OutputStream outstream = new BufferedOutputStream(new FileOutputStream(config.output));
             Assembler a = new Assembler(
               config,
               FileUtils.createSmartTextFileReader(new File(fn)),
-              new FileOutputStream(config.output)
+              outstream
             );
             a.assemble();
+            outstream.flush();
+            outstream.close();
           } catch(IOException e) {
             error(e.getMessage(), false);
           } catch(AssemblerException e) {
@@ -135,6 +300,133 @@ public class Main {
         }
         break;
       }
+      case SCAN: {
+        Output output = config.getOutput();
+        scan(fn, config, output);
+        for(String file : extra) {
+          scan(file, config, output);
+        }
+        output.finish();
+        break;
+      }
+      case MEMSTATS: {
+        Output output = config.getOutput();
+        memstats(fn, config, output);
+        for(String file : extra) {
+          memstats(file, config, output);
+        }
+        output.finish();
+        break;
+      }
+      case INFER: {
+        OpcodeInference inference = new OpcodeInference();
+        List<String> inputs = new ArrayList<String>();
+        inputs.add(fn);
+        inputs.addAll(extra);
+        for(String input : inputs) {
+          infer(inference, new File(input), config);
+        }
+        try {
+          inference.infer(Runtime.getRuntime().availableProcessors());
+        } catch(IllegalStateException e) {
+          error(e.getMessage(), false);
+        }
+        Output output = config.getOutput();
+        inference.print(output);
+        output.finish();
+        break;
+      }
+      case INDEX: {
+        try {
+          SymbolIndex index = SymbolIndex.load(new File(config.index), config.getFingerprint());
+          int updated = 0;
+          List<String> inputs = new ArrayList<String>();
+          inputs.add(fn);
+          inputs.addAll(extra);
+          for(String input : inputs) {
+            updated += index(index, new File(input), config);
+          }
+          int removed = index.prune();
+          index.save(new File(config.index));
+          System.out.println("indexed " + updated + " chunks, removed " + removed);
+        } catch(IOException e) {
+          error(e.getMessage(), false);
+        }
+        break;
+      }
+      case INCREMENTAL: {
+        if(config.output == null) {
+          error("incremental mode requires an output directory", true);
+        }
+        try {
+          IncrementalBatch batch = new IncrementalBatch(config, new File(config.manifest), new File(config.output), System.err);
+          List<String> inputs = new ArrayList<String>();
+          inputs.add(fn);
+          inputs.addAll(extra);
+          batch.run(inputs);
+          System.out.println("decompiled " + batch.decompiled + " chunks, skipped " + batch.skipped + ", removed " + batch.removed + ", " + batch.failed + " failed");
+          if(batch.failed > 0) {
+            System.exit(1);
+          }
+        } catch(IOException e) {
+          error(e.getMessage(), false);
+        }
+        break;
+      }
+      case QUERY: {
+        try {
+          SymbolIndex index = SymbolIndex.load(new File(config.index));
+          Output output = config.getOutput();
+          for(String result : index.query(fn)) {
+            output.println(result);
+          }
+          output.finish();
+        } catch(IOException e) {
+          error(e.getMessage(), false);
+        }
+        break;
+      }
+      case DIFF: {
+        LFunction before = null;
+        LFunction after = null;
+        try {
+          before = file_to_function(fn, new Configuration(config));
+          after = file_to_function(extra.get(0), new Configuration(config));
+        } catch(IOException e) {
+          error(e.getMessage(), false);
+        }
+        ChunkDiff diff = new ChunkDiff(before, after);
+        Output output = config.getOutput();
+        for(ChunkDiff.Change change : diff.changes) {
+          output.println(change.toString());
+        }
+        if(config.showsource) {
+          for(ChunkDiff.Change change : diff.changes) {
+            if(change.kind == ChunkDiff.Kind.MODIFIED) {
+              output.println();
+              output.println("-- " + change.after.path);
+              Decompiler d = new Decompiler(change.after.function);
+              d.print(d.decompile(), output);
+            }
+          }
+        }
+        output.finish();
+        break;
+      }
+      case TRANSCODE: {
+        if(config.output == null) {
+          error("transcoder mode requires an output file", true);
+        } else {
+          try {
+            transcode(fn, config.output, config);
+          } catch(IOException e) {
+            error(e.getMessage(), false);
+          } catch(TranscoderException e) {
+            error(e.getMessage(), false);
+          }
+        }
+        break;
+      }
       default:
         throw new IllegalStateException();
       }
@@ -142,6 +434,21 @@ public class Main {
     }
   }
   
+  /**
+   * The listener lives apart from the rest (in src-jfr) and is loaded by
+   * name, since jdk.jfr isn't in every runtime unluac supports.
+   */
+  private static StageListener flight_recorder_listener() {
+    try {
+      return (StageListener) Class.forName("unluac.stats.FlightRecorderListener").getDeclaredConstructor().newInstance();
+    } catch(ReflectiveOperationException e) {
+      error("option \"--jfr\" isn't available in this build", false);
+    } catch(LinkageError e) {
+      error("option \"--jfr\" needs a Java runtime with Flight Recorder (jdk.jfr)", false);
+    }
+    return null;
+  }
+
   public static void error(String err, boolean usage) {
     print_unluac_string(System.err);
     System.err.print("  error: ");
@@ -159,6 +466,24 @@ public class Main {
     System.out.println("Available options are:");
     System.out.println("  --assemble        assemble given disassembly listing");
     System.out.println("  --disassemble     disassemble instead of decompile");
+    System.out.println("  --scan            print statistics for each input file as JSON lines");
+    System.out.println("  --memstats        print estimated heap use per function as JSON lines");
+    System.out.println("  --inferopmap      infer an opmap file for permuted opcodes from the given chunks");
+    System.out.println("  --index <index>   add or refresh the given files or directories in <index>");
+    System.out.println("  --incremental <m> decompile changed files into the --output directory, tracked in manifest <m>");
+    System.out.println("  --query <index>   list uses of a symbol (\"name\" or \"kind:name\") in <index>");
+    System.out.println("  --diff            list functions changed between two chunks (old, new)");
+    System.out.println("  --showsource      decompile the modified functions when diffing");
+    System.out.println("  --transcode       rewrite the input chunk directly (requires --output)");
+    System.out.println("  --strip           remove debugging information when transcoding");
+    System.out.println("  --endianness <e>  write <e> (little or big) endianness when transcoding");
+    System.out.println("  --intsize <n>     write ints of <n> bytes when transcoding");
+    System.out.println("  --sizetsize <n>   write size_ts of <n> bytes when transcoding");
+    System.out.println("  --stats <file>    write per-stage timing and allocation to <file> as JSON");
+    System.out.println("  --jfr             emit Java Flight Recorder events for each stage");
+    System.out.println("  --cache <dir>     reuse and store outputs in the shared result cache <dir>");
+    System.out.println("  --cachelimit <n>  evict least recently used cache entries above <n> MiB");
+    System.out.println("  --intern          share constant strings across input files in batch runs");
     System.out.println("  --nodebug         ignore debugging information in input file");
     System.out.println("  --typemap <file>  use type mapping specified in <file>");
     System.out.println("  --opmap <file>    use opcode mapping specified in <file>");
@@ -174,6 +499,15 @@ public class Main {
   
   private static void print_usage(PrintStream out) {
     out.println("  usage: java -jar unluac.jar [options] <file>");
+    out.println("         java -jar unluac.jar [options] -   (chunks from standard input)");
+    out.println("         java -jar unluac.jar [options] --output <dir or .zip> <archive>");
+    out.println("         java -jar unluac.jar --scan [options] <file>...");
+    out.println("         java -jar unluac.jar --memstats [options] <file>...");
+    out.println("         java -jar unluac.jar --inferopmap [options] <file>...");
+    out.println("         java -jar unluac.jar --index <index> [options] <file>...");
+    out.println("         java -jar unluac.jar --incremental <manifest> --output <dir> [options] <file>...");
+    out.println("         java -jar unluac.jar --query <index> <symbol>");
+    out.println("         java -jar unluac.jar --diff [options] <old> <new>");
   }
   
   private static LFunction file_to_function(String fn, Configuration config) throws IOException {
@@ -186,8 +520,7 @@ public class Main {
       FileChannel in = file.getChannel();
       while(len > 0) len -= in.read(buffer);
       buffer.rewind();
-      BHeader header = new BHeader(buffer, config);
-      return header.main;
+      return buffer_to_function(buffer, config);
     } finally {
       if(file != null) {
         file.close();
@@ -195,6 +528,189 @@ public class Main {
     }
   }
   
+  /**
+   * Standard input ("-") and anything that isn't a regular file, such as a
+   * pipe, is read as a stream of one or more concatenated chunks.
+   */
+  private static boolean is_stream(String fn) {
+    return fn.equals("-") || !new File(fn).isFile() && new File(fn).exists();
+  }
+  
+  private static void stream(String fn, Configuration config) {
+    Output output = config.getOutput();
+    String comment = config.mode == Mode.DISASSEMBLE ? "; " : "-- ";
+    ReadableByteChannel channel = null;
+    try {
+      channel = fn.equals("-") ? Channels.newChannel(System.in) : new FileInputStream(fn).getChannel();
+      ChunkReader reader = new ChunkReader(channel, config);
+      LFunction lmain;
+      int chunks = 0;
+      while((lmain = reader.next()) != null) {
+        if(chunks++ > 0) {
+          output.println();
+          output.println(comment + "chunk at byte " + reader.getOffset());
+        }
+        if(config.mode == Mode.DISASSEMBLE) {
+          new Disassembler(lmain).disassemble(output);
+        } else {
+          Decompiler d = new Decompiler(lmain);
+          d.print(d.decompile(), output);
+        }
+      }
+      if(reader.getSkipped() > 0) {
+        System.err.println(fn + ": skipped " + reader.getSkipped() + " bytes outside of chunks");
+      }
+    } catch(IOException | RuntimeException e) {
+      output.finish();
+      error(e.getMessage(), false);
+    } finally {
+      if(channel != null) {
+        try {
+          channel.close();
+        } catch(IOException e) {
+          // nothing to do
+        }
+      }
+    }
+    config.instrumentation.begin(Stage.FLUSH, null);
+    output.finish();
+    config.instrumentation.end(Stage.FLUSH);
+    write_stats(fn, null, config);
+  }
+  
+  private static void cached(String fn, Configuration config) {
+    try {
+      ResultCache cache = ResultCache.get(config);
+      byte[] chunk = Files.readAllBytes(new File(fn).toPath());
+      String key = ResultCache.key(chunk, config);
+      byte[] result = cache.get(key);
+      LFunction lmain = null;
+      if(result == null) {
+        lmain = buffer_to_function(ByteBuffer.wrap(chunk), new Configuration(config));
+        result = render(lmain, config);
+        cache.put(key, result);
+      }
+      OutputStream out = config.output != null ? new FileOutputStream(config.output) : System.out;
+      out.write(result);
+      out.flush();
+      if(config.output != null) {
+        out.close();
+      }
+      write_stats(fn, lmain, config);
+    } catch(IOException e) {
+      error(e.getMessage(), false);
+    }
+  }
+  
+  /**
+   * Decompiles, or disassembles in disassembler mode, to a byte array.
+   */
+  public static byte[] render(LFunction lmain, Configuration config) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Output output = new Output(new FileOutputProvider(out));
+    if(config.mode == Mode.DISASSEMBLE) {
+      new Disassembler(lmain).disassemble(output);
+    } else {
+      Decompiler d = new Decompiler(lmain);
+      d.print(d.decompile(), output);
+    }
+    output.finish();
+    return out.toByteArray();
+  }
+  
+  private static void archive(String fn, Configuration config) {
+    if(config.output == null) {
+      error("archive input requires an output directory or .zip file", true);
+    }
+    ArchiveDecompiler archive = new ArchiveDecompiler(config, Runtime.getRuntime().availableProcessors(), System.err);
+    try {
+      archive.run(new File(fn), new File(config.output));
+    } catch(IOException e) {
+      error(e.getMessage(), false);
+    }
+    System.out.println("decompiled " + archive.decompiled + " chunks, skipped " + archive.skipped + " entries, " + archive.failed + " failed");
+    write_stats(fn, null, config);
+    if(archive.failed > 0) {
+      System.exit(1);
+    }
+  }
+  
+  public static LFunction buffer_to_function(ByteBuffer buffer, Configuration config) {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    BHeader header = new BHeader(buffer, config);
+    return header.main;
+  }
+  
+  private static void write_stats(String fn, LFunction lmain, Configuration config) {
+    if(config.stats != null) {
+      try {
+        OutputStream out = new FileOutputStream(config.stats);
+        out.write(config.instrumentation.toJSON(fn, lmain).getBytes("UTF-8"));
+        out.close();
+      } catch(IOException e) {
+        error(e.getMessage(), false);
+      }
+    }
+  }
+  
+  private static void scan(String fn, Configuration config, Output output) {
+    try {
+      LFunction lmain = file_to_function(fn, new Configuration(config));
+      output.println(new ChunkStatistics(lmain).toJSON(fn));
+    } catch(IOException | RuntimeException e) {
+      output.println("{\"file\":" + StringUtils.toJSONString(fn) + ",\"error\":" + StringUtils.toJSONString(String.valueOf(e.getMessage())) + "}");
+    }
+  }
+  
+  private static void memstats(String fn, Configuration config, Output output) {
+    try {
+      LFunction lmain = file_to_function(fn, new Configuration(config));
+      output.println(new MemoryStatistics(lmain).toJSON(fn));
+    } catch(IOException | RuntimeException e) {
+      output.println("{\"file\":" + StringUtils.toJSONString(fn) + ",\"error\":" + StringUtils.toJSONString(String.valueOf(e.getMessage())) + "}");
+    }
+  }
+  
+  private static void infer(OpcodeInference inference, File file, Configuration config) {
+    if(file.isDirectory()) {
+      File[] children = file.listFiles();
+      if(children != null) {
+        Arrays.sort(children);
+        for(File child : children) {
+          infer(inference, child, config);
+        }
+      }
+    } else {
+      try {
+        Configuration standard = new Configuration(config);
+        standard.opmap = null;
+        inference.add(file_to_function(file.getPath(), standard));
+      } catch(IOException | RuntimeException e) {
+        System.err.println(file.getPath() + ": " + e.getMessage());
+      }
+    }
+  }
+  
+  private static int index(SymbolIndex index, File file, Configuration config) {
+    int updated = 0;
+    if(file.isDirectory()) {
+      File[] children = file.listFiles();
+      if(children != null) {
+        Arrays.sort(children);
+        for(File child : children) {
+          updated += index(index, child, config);
+        }
+      }
+    } else {
+      try {
+        if(index.update(file, config)) updated++;
+      } catch(IOException | RuntimeException e) {
+        System.err.println(file.getPath() + ": " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+      }
+    }
+    return updated;
+  }
+  
   public static void decompile(String in, String out, Configuration config) throws IOException {
     LFunction lmain = file_to_function(in, config);
     Decompiler d = new Decompiler(lmain);
@@ -204,6 +720,17 @@ public class Main {
     output.finish();
   }
   
+  public static byte[] decompile(ByteBuffer in, Configuration config) {
+    LFunction lmain = buffer_to_function(in, config);
+    Decompiler d = new Decompiler(lmain);
+    Decompiler.State result = d.decompile();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Output output = new Output(new FileOutputProvider(out));
+    d.print(result, output);
+    output.finish();
+    return out.toByteArray();
+  }
+  
   public static void assemble(String in, String out) throws IOException, AssemblerException {
     OutputStream outstream = new BufferedOutputStream(new FileOutputStream(new File(out)));
     Assembler a = new Assembler(new Configuration(), FileUtils.createSmartTextFileReader(new File(in)), outstream);
@@ -212,11 +739,41 @@ public class Main {
     outstream.close();
   }
   
+  public static byte[] assemble(byte[] in) throws IOException, AssemblerException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Assembler a = new Assembler(new Configuration(), FileUtils.createSmartTextReader(new ByteArrayInputStream(in)), out);
+    a.assemble();
+    return out.toByteArray();
+  }
+  
+  public static void transcode(String in, String out, Configuration config) throws IOException, TranscoderException {
+    LFunction lmain = file_to_function(in, config);
+    // transcode fully first, so that a rejected chunk leaves no output file
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    Transcoder t = new Transcoder(lmain.header, config);
+    t.transcode(result);
+    OutputStream outstream = new BufferedOutputStream(new FileOutputStream(new File(out)));
+    result.writeTo(outstream);
+    outstream.flush();
+    outstream.close();
+  }
+  
   public static void disassemble(String in, String out) throws IOException {
     LFunction lmain = file_to_function(in, new Configuration());
+    disassemble(lmain, new FileOutputStream(out));
+  }
+  
+  public static byte[] disassemble(ByteBuffer in) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    disassemble(buffer_to_function(in, new Configuration()), out);
+    return out.toByteArray();
+  }
+  
+  private static void disassemble(LFunction lmain, OutputStream out) {
     Disassembler d = new Disassembler(lmain);
-    Output output = new Output(new FileOutputProvider(new FileOutputStream(out)));
+    Output output = new Output(new FileOutputProvider(out));
     d.disassemble(output);
     output.finish();
-  } 
+  }
+
 }
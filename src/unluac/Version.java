@@ -2,6 +2,8 @@ package unluac;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import unluac.decompile.Op;
 import unluac.decompile.OpcodeMap;
@@ -14,8 +16,24 @@ import unluac.parse.LUpvalueType;
 
 public class Version {
 
+  /*
+   * Versions are immutable and depend on the configuration only through
+   * the luaj and miwifi flags, so one instance (with its opcode and type
+   * maps) is shared by every chunk of the same kind.
+   */
+  private static final ConcurrentMap<Integer, Version> versions = new ConcurrentHashMap<Integer, Version>();
+  
   public static Version getVersion(Configuration config, int major, int minor) {
-    return new Version(config, major, minor);
+    int key = ((major & 0xFF) << 10) | ((minor & 0xFF) << 2) | (config.luaj ? 1 : 0) | (config.miwifi ? 2 : 0);
+    Version version = versions.get(key);
+    if(version == null) {
+      version = new Version(major, minor, config.luaj, config.miwifi);
+      Version existing = versions.putIfAbsent(key, version);
+      if(existing != null) {
+        version = existing;
+      }
+    }
+    return version;
   }
   
   public static class Setting<T> {
@@ -149,7 +167,7 @@ public class Version {
   private final OpcodeMap opcodemap;
   private final Op defaultop;
   
-  private Version(Configuration config, int major, int minor) {
+  private Version(int major, int minor, boolean luaj, boolean miwifi) {
     HeaderType headertype;
     StringType stringtype;
     UpvalueType upvaluetype;
@@ -159,7 +177,6 @@ public class Version {
     this.major = major;
     this.minor = minor;
     name = major + "." + minor;
-    final boolean luaj = config.luaj;
     if(major == 5 && minor >= 0 && minor <= 4) {
       switch(minor) {
         case 0:
@@ -319,7 +336,7 @@ public class Version {
           break;
         default: throw new IllegalStateException();
       }
-      if (config.miwifi) {
+      if (miwifi) {
         headertype = HeaderType.LUAMIWIFI;
         stringtype = StringType.LUAMIWIFI;
         functiontype = FunctionType.LUAMIWIFI;
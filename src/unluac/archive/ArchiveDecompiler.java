@@ -0,0 +1,291 @@
+package unluac.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import unluac.Configuration;
+import unluac.Main;
+import unluac.cache.ResultCache;
+import unluac.parse.BHeader;
+
+/**
+ * Decompiles (or disassembles) every chunk in a zip-style archive without
+ * extracting it. Entries are read straight from the ZipFile and processed
+ * on a thread pool; the results are written in archive order, by the
+ * calling thread alone, to an output directory or, if the output name ends
+ * in .zip, to an output archive. Entries that don't start with a chunk
+ * signature are skipped, and the result cache, if any, is checked before
+ * parsing the others. Entries whose outputs would have the same name (x.lua
+ * and x.luac) are reported, and only the first is written.
+ */
+public class ArchiveDecompiler {
+
+  private static final byte[] ZIP_SIGNATURE = {0x50, 0x4B, 0x03, 0x04};
+
+  private static class Result {
+
+    final String name;
+    final byte[] output;
+    final String error;
+
+    Result(String name, byte[] output, String error) {
+      this.name = name;
+      this.output = output;
+      this.error = error;
+    }
+  }
+
+  public int decompiled;
+  public int skipped;
+  public int failed;
+
+  private final Configuration config;
+  private final int threads;
+  private final PrintStream log;
+  /* The entry that claimed each output name in this run. */
+  private final Map<String, String> claimed = new HashMap<String, String>();
+
+  public ArchiveDecompiler(Configuration config, int threads, PrintStream log) {
+    this.config = config;
+    // the instrumentation can only be used by one thread at a time
+    this.threads = config.instrumentation.isEnabled() ? 1 : threads;
+    this.log = log;
+  }
+
+  /**
+   * Whether the file is a regular file starting with a zip local header.
+   */
+  public static boolean isArchive(File file) {
+    if(!file.isFile()) return false;
+    byte[] header = new byte[ZIP_SIGNATURE.length];
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        int n = 0;
+        while(n < header.length) {
+          int read = in.read(header, n, header.length - n);
+          if(read == -1) return false;
+          n += read;
+        }
+      } finally {
+        in.close();
+      }
+    } catch(IOException e) {
+      return false;
+    }
+    for(int i = 0; i < header.length; i++) {
+      if(header[i] != ZIP_SIGNATURE[i]) return false;
+    }
+    return true;
+  }
+
+  public void run(File archive, File output) throws IOException {
+    ZipFile zip = new ZipFile(archive);
+    Sink sink;
+    try {
+      sink = output.getName().endsWith(".zip") ? new ZipSink(output) : new DirectorySink(output);
+    } catch(IOException e) {
+      zip.close();
+      throw e;
+    }
+    claimed.clear();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      // results are written in order with a bounded number in flight
+      List<Future<Result>> pending = new ArrayList<Future<Result>>();
+      int window = 4 * threads;
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while(entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if(entry.isDirectory()) continue;
+        pending.add(executor.submit(new Task(zip, entry)));
+        if(pending.size() >= window) {
+          write(pending.remove(0), sink);
+        }
+      }
+      while(!pending.isEmpty()) {
+        write(pending.remove(0), sink);
+      }
+    } finally {
+      executor.shutdownNow();
+      sink.close();
+      zip.close();
+    }
+  }
+
+  private void write(Future<Result> future, Sink sink) throws IOException {
+    Result result;
+    try {
+      result = future.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch(ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    if(result.error != null) {
+      log.println(result.name + ": " + result.error);
+      failed++;
+    } else if(result.output == null) {
+      skipped++;
+    } else {
+      String name = outputName(result.name);
+      String owner = claimed.get(name);
+      if(owner != null) {
+        log.println(result.name + ": output " + name + " is already taken by " + owner);
+        failed++;
+        return;
+      }
+      claimed.put(name, result.name);
+      try {
+        sink.write(name, result.output);
+        decompiled++;
+      } catch(IOException e) {
+        log.println(result.name + ": " + e.getMessage());
+        failed++;
+      }
+    }
+  }
+
+  private String outputName(String name) {
+    if(name.endsWith(".luac")) {
+      name = name.substring(0, name.length() - 5);
+    } else if(name.endsWith(".lua")) {
+      name = name.substring(0, name.length() - 4);
+    }
+    return name + (config.mode == Configuration.Mode.DISASSEMBLE ? ".txt" : ".lua");
+  }
+
+  private class Task implements Callable<Result> {
+
+    private final ZipFile zip;
+    private final ZipEntry entry;
+
+    Task(ZipFile zip, ZipEntry entry) {
+      this.zip = zip;
+      this.entry = entry;
+    }
+
+    @Override
+    public Result call() {
+      try {
+        byte[] chunk = read(zip, entry);
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        if(!BHeader.isSignature(buffer) || chunk.length < BHeader.SIGNATURE_LENGTH) {
+          return new Result(entry.getName(), null, null);
+        }
+        ResultCache cache = ResultCache.get(config);
+        String key = cache != null ? ResultCache.key(chunk, config) : null;
+        byte[] result = cache != null ? cache.get(key) : null;
+        if(result == null) {
+          result = Main.render(Main.buffer_to_function(buffer, new Configuration(config)), config);
+          if(cache != null) cache.put(key, result);
+        }
+        return new Result(entry.getName(), result, null);
+      } catch(IOException | RuntimeException e) {
+        return new Result(entry.getName(), null, String.valueOf(e.getMessage()));
+      }
+    }
+  }
+
+  private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+    long size = entry.getSize();
+    ByteArrayOutputStream content = new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE ? (int) size : 4096);
+    InputStream in = zip.getInputStream(entry);
+    try {
+      byte[] buffer = new byte[8192];
+      int n;
+      while((n = in.read(buffer)) != -1) {
+        content.write(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return content.toByteArray();
+  }
+
+  private static interface Sink {
+
+    void write(String name, byte[] content) throws IOException;
+
+    void close() throws IOException;
+
+  }
+
+  private static class DirectorySink implements Sink {
+
+    private final File root;
+
+    DirectorySink(File root) {
+      this.root = root;
+    }
+
+    @Override
+    public void write(String name, byte[] content) throws IOException {
+      File file = new File(root, name);
+      // entry names like ../x must not escape the output directory
+      if(!file.getCanonicalPath().startsWith(root.getCanonicalPath() + File.separator)) {
+        throw new IOException("Entry outside of the output directory: " + name);
+      }
+      File parent = file.getParentFile();
+      if(!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Can't create directory " + parent.getPath());
+      }
+      OutputStream out = new FileOutputStream(file);
+      try {
+        out.write(content);
+      } finally {
+        out.close();
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+
+  }
+
+  private static class ZipSink implements Sink {
+
+    private final ZipOutputStream out;
+
+    ZipSink(File file) throws IOException {
+      out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    @Override
+    public void write(String name, byte[] content) throws IOException {
+      out.putNextEntry(new ZipEntry(name));
+      out.write(content);
+      out.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+
+  }
+
+}
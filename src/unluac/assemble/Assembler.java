@@ -20,7 +20,6 @@ import unluac.decompile.OperandFormat;
 import unluac.decompile.Type;
 import unluac.decompile.TypeMap;
 import unluac.parse.BHeader;
-import unluac.parse.BInteger;
 import unluac.parse.BIntegerType;
 import unluac.parse.LAbsLineInfo;
 import unluac.parse.LAbsLineInfoType;
@@ -691,7 +690,7 @@ class AssemblerChunk {
     LLocal[] locals = new LLocal[function.locals.size()];
     i = 0;
     for(AssemblerLocal local : function.locals) {
-      locals[i++] = new LLocal(convert_string(header, local.name), new BInteger(local.begin), new BInteger(local.end));
+      locals[i++] = new LLocal(convert_string(header, local.name), local.begin, local.end);
     }
     LObject[] constants = new LObject[function.constants.size()];
     i = 0;
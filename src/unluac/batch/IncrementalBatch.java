@@ -0,0 +1,311 @@
+package unluac.batch;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import unluac.Configuration;
+import unluac.Main;
+import unluac.cache.ResultCache;
+import unluac.util.HashUtils;
+
+/**
+ * Decompiles a tree of chunks into an output directory, redoing only what
+ * changed since the last run. The manifest records, for each output file,
+ * the input's path, size, modification time and content hash, and a
+ * fingerprint of the unluac version and the options that affect output.
+ * An input is skipped if its record is current (matching size and time,
+ * or failing that matching hash) and its output still exists. Changed
+ * inputs are looked up in the result cache, if any, before decompiling.
+ *
+ * The manifest is a log: a record is appended, and flushed, only once its
+ * output file has been moved into place, and later records replace
+ * earlier ones for the same output. A run that is interrupted therefore
+ * loses at most the file being written, and the next run resumes from the
+ * records already there. A torn last line is ignored. The log is compacted
+ * at the end of each complete run.
+ *
+ * Inputs whose outputs would have the same name (a/x.luac and b/x.luac
+ * given as separate roots, or x.lua next to x.luac) are reported, and only
+ * the first is decompiled. An input that fails to decompile loses its old
+ * output and record, so that a stale result is never left in place.
+ */
+public class IncrementalBatch {
+
+  private static final String HEADER = "# unluac manifest 1";
+
+  private static class Record {
+    String output;
+    String input;
+    long size;
+    long modified;
+    String hash;
+    String fingerprint;
+  }
+
+  public int decompiled;
+  public int skipped;
+  public int removed;
+  public int failed;
+
+  private final Configuration config;
+  private final File manifest;
+  private final File root;
+  private final String fingerprint;
+  private final PrintStream log;
+  private final Map<String, Record> records = new LinkedHashMap<String, Record>();
+  /* The input that claimed each output name in this run. */
+  private final Map<String, String> visited = new HashMap<String, String>();
+  private Writer writer;
+
+  public IncrementalBatch(Configuration config, File manifest, File root, PrintStream log) throws IOException {
+    this.config = new Configuration(config);
+    this.config.mode = Configuration.Mode.DECOMPILE;
+    this.manifest = manifest;
+    this.root = root;
+    this.log = log;
+    fingerprint = this.config.getFingerprint();
+    load();
+  }
+
+  /**
+   * Brings the outputs of the given files and directories up to date, then
+   * removes the outputs of inputs that no longer exist.
+   */
+  public void run(List<String> inputs) throws IOException {
+    writer = new OutputStreamWriter(new FileOutputStream(manifest, true), StandardCharsets.UTF_8);
+    try {
+      if(manifest.length() == 0) {
+        writer.write(HEADER + "\n");
+      }
+      for(String input : inputs) {
+        File file = new File(input);
+        update(file, file.isDirectory() ? "" : null);
+      }
+      for(Record record : new ArrayList<Record>(records.values())) {
+        if(!visited.containsKey(record.output) && !new File(record.input).exists()) {
+          File output = new File(root, record.output);
+          if(output.exists() && !output.delete()) {
+            log.println(output.getPath() + ": can't remove");
+            failed++;
+            continue;
+          }
+          records.remove(record.output);
+          append("-\t" + escape(record.output));
+          removed++;
+        }
+      }
+    } finally {
+      writer.close();
+      writer = null;
+    }
+    compact();
+  }
+
+  /**
+   * The output of a file is named after its path below the input directory
+   * it was found in (or after the file itself if it was given directly).
+   */
+  private void update(File file, String relative) throws IOException {
+    if(file.isDirectory()) {
+      File[] children = file.listFiles();
+      if(children != null) {
+        Arrays.sort(children);
+        for(File child : children) {
+          update(child, relative + child.getName() + (child.isDirectory() ? "/" : ""));
+        }
+      }
+      return;
+    }
+    if(relative == null) relative = file.getName();
+    String output = outputName(relative);
+    String input = file.getAbsoluteFile().toPath().normalize().toString();
+    String claimed = visited.get(output);
+    if(claimed != null) {
+      log.println(file.getPath() + ": output " + output + " is already taken by " + claimed);
+      failed++;
+      return;
+    }
+    visited.put(output, input);
+    File target = new File(root, output);
+    Record record = records.get(output);
+    long size = file.length();
+    long modified = file.lastModified();
+    boolean current = record != null && record.input.equals(input) && record.fingerprint.equals(fingerprint) && target.exists();
+    if(current && record.size == size && record.modified == modified) {
+      skipped++;
+      return;
+    }
+    byte[] chunk;
+    String hash;
+    try {
+      chunk = Files.readAllBytes(file.toPath());
+      hash = HashUtils.sha256Hex(chunk);
+    } catch(IOException e) {
+      log.println(file.getPath() + ": " + e.getMessage());
+      failed++;
+      discard(output, target);
+      return;
+    }
+    if(!current || !record.hash.equals(hash)) {
+      File parent = target.getParentFile();
+      File temp = new File(parent, target.getName() + ".tmp");
+      try {
+        if(!parent.isDirectory() && !parent.mkdirs()) {
+          throw new IOException("Can't create directory " + parent.getPath());
+        }
+        ResultCache cache = ResultCache.get(config);
+        String key = cache != null ? ResultCache.key(chunk, config) : null;
+        byte[] result = cache != null ? cache.get(key) : null;
+        if(result == null) {
+          result = Main.render(Main.buffer_to_function(ByteBuffer.wrap(chunk), new Configuration(config)), config);
+          if(cache != null) cache.put(key, result);
+        }
+        Files.write(temp.toPath(), result);
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch(IOException | RuntimeException e) {
+        temp.delete();
+        log.println(file.getPath() + ": " + e.getMessage());
+        failed++;
+        discard(output, target);
+        return;
+      }
+      decompiled++;
+    } else {
+      // touched but unchanged
+      skipped++;
+    }
+    record = new Record();
+    record.output = output;
+    record.input = input;
+    record.size = size;
+    record.modified = modified;
+    record.hash = hash;
+    record.fingerprint = fingerprint;
+    records.put(output, record);
+    append(line(record));
+  }
+
+  /**
+   * Removes the output and record of an input that couldn't be redone.
+   */
+  private void discard(String output, File target) throws IOException {
+    if(records.remove(output) != null) {
+      if(target.exists() && !target.delete()) {
+        log.println(target.getPath() + ": can't remove");
+      }
+      append("-\t" + escape(output));
+    }
+  }
+
+  private static String outputName(String name) {
+    if(name.endsWith(".luac")) {
+      name = name.substring(0, name.length() - 5);
+    } else if(name.endsWith(".lua")) {
+      name = name.substring(0, name.length() - 4);
+    }
+    return name + ".lua";
+  }
+
+  private void load() throws IOException {
+    if(!manifest.exists()) return;
+    byte[] content = Files.readAllBytes(manifest.toPath());
+    // anything after the last newline is a record torn by a crash
+    int end = content.length;
+    while(end > 0 && content[end - 1] != '\n') end--;
+    BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content, 0, end), StandardCharsets.UTF_8));
+    String line;
+    while((line = in.readLine()) != null) {
+      if(line.isEmpty() || line.startsWith("#")) continue;
+      String[] fields = line.split("\t", -1);
+      if(fields[0].equals("+") && fields.length == 7) {
+        Record record = new Record();
+        record.output = unescape(fields[1]);
+        record.input = unescape(fields[2]);
+        try {
+          record.size = Long.parseLong(fields[3]);
+          record.modified = Long.parseLong(fields[4]);
+        } catch(NumberFormatException e) {
+          throw new IOException("Malformed manifest record: " + line);
+        }
+        record.hash = fields[5];
+        record.fingerprint = fields[6];
+        records.remove(record.output);
+        records.put(record.output, record);
+      } else if(fields[0].equals("-") && fields.length == 2) {
+        records.remove(unescape(fields[1]));
+      } else {
+        throw new IOException("Malformed manifest record: " + line);
+      }
+    }
+    if(end < content.length) {
+      // drop the torn record so that appends start on a new line
+      compact();
+    }
+  }
+
+  private void append(String line) throws IOException {
+    writer.write(line);
+    writer.write('\n');
+    writer.flush();
+  }
+
+  private void compact() throws IOException {
+    File temp = new File(manifest.getPath() + ".tmp");
+    Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8);
+    try {
+      out.write(HEADER + "\n");
+      for(Record record : records.values()) {
+        out.write(line(record));
+        out.write('\n');
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static String line(Record record) {
+    return "+\t" + escape(record.output) + "\t" + escape(record.input) + "\t" + record.size + "\t" + record.modified + "\t" + record.hash + "\t" + record.fingerprint;
+  }
+
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+  }
+
+  private static String unescape(String s) {
+    StringBuilder b = new StringBuilder(s.length());
+    for(int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if(c == '\\' && i + 1 < s.length()) {
+        char next = s.charAt(++i);
+        switch(next) {
+          case 't': b.append('\t'); break;
+          case 'n': b.append('\n'); break;
+          case 'r': b.append('\r'); break;
+          default: b.append(next); break;
+        }
+      } else {
+        b.append(c);
+      }
+    }
+    return b.toString();
+  }
+
+}
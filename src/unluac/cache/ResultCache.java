@@ -0,0 +1,157 @@
+package unluac.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import unluac.Configuration;
+import unluac.util.HashUtils;
+
+/**
+ * A directory of decompiled or disassembled output, keyed by the hash of
+ * the input chunk and of the configuration's fingerprint, which several
+ * processes can share. Entries are written to a temp file and moved into
+ * place atomically, so a reader sees either a whole entry or none, and
+ * racing writers of the same key store the same bytes.
+ *
+ * Each hit refreshes the entry's modification time, which serves as the
+ * LRU clock: once a process has stored a sixteenth of the size limit since
+ * its last sweep, it deletes the least recently used entries until the
+ * cache is back under seven eighths of the limit. A process that stores
+ * little never sweeps, so short runs don't each pay for a directory scan.
+ */
+public class ResultCache {
+
+  public static final long DEFAULT_LIMIT = 1L << 30;
+
+  private static final ConcurrentMap<String, ResultCache> caches = new ConcurrentHashMap<String, ResultCache>();
+
+  /**
+   * Returns the cache the configuration asks for, or null if none.
+   */
+  public static ResultCache get(Configuration config) {
+    if(config.cache == null) return null;
+    String key = new File(config.cache).getAbsolutePath() + "\0" + config.cachelimit;
+    ResultCache cache = caches.get(key);
+    if(cache == null) {
+      ResultCache existing = caches.putIfAbsent(key, cache = new ResultCache(new File(config.cache), config.cachelimit));
+      if(existing != null) {
+        cache = existing;
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * The key of the output for the given chunk under the configuration.
+   */
+  public static String key(byte[] chunk, Configuration config) throws IOException {
+    MessageDigest digest = HashUtils.sha256();
+    digest.update(chunk);
+    digest.update((byte) 0);
+    digest.update(config.getFingerprint().getBytes(StandardCharsets.UTF_8));
+    return HashUtils.toHexString(digest.digest());
+  }
+
+  private final File directory;
+  private final long limit;
+  private final AtomicLong stored = new AtomicLong();
+
+  public ResultCache(File directory, long limit) {
+    this.directory = directory;
+    this.limit = limit;
+  }
+
+  /**
+   * Returns the stored output, or null if there is none.
+   */
+  public byte[] get(String key) throws IOException {
+    File entry = entry(key);
+    byte[] content;
+    try {
+      content = Files.readAllBytes(entry.toPath());
+    } catch(NoSuchFileException e) {
+      return null;
+    }
+    entry.setLastModified(System.currentTimeMillis());
+    return content;
+  }
+
+  public void put(String key, byte[] content) throws IOException {
+    File entry = entry(key);
+    File dir = entry.getParentFile();
+    if(!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Can't create directory " + dir.getPath());
+    }
+    // concurrent writers each use their own temp file
+    File temp = File.createTempFile(key.substring(0, 8), ".tmp", dir);
+    try {
+      Files.write(temp.toPath(), content);
+      Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      temp.delete();
+    }
+    if(stored.addAndGet(content.length) >= limit / 16) {
+      stored.set(0);
+      sweep();
+    }
+  }
+
+  private File entry(String key) {
+    return new File(new File(directory, key.substring(0, 2)), key);
+  }
+
+  private void sweep() {
+    List<File> entries = new ArrayList<File>();
+    File[] dirs = directory.listFiles();
+    if(dirs == null) return;
+    long total = 0;
+    for(File dir : dirs) {
+      File[] files = dir.listFiles();
+      if(files == null) continue;
+      for(File file : files) {
+        // other processes' temp files are left alone
+        if(file.getName().endsWith(".tmp")) continue;
+        entries.add(file);
+        total += file.length();
+      }
+    }
+    if(total <= limit) return;
+    final long[] times = new long[entries.size()];
+    List<Integer> order = new ArrayList<Integer>(entries.size());
+    for(int i = 0; i < entries.size(); i++) {
+      times[i] = entries.get(i).lastModified();
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(times[a], times[b]);
+      }
+
+    });
+    long target = limit - limit / 8;
+    for(int i : order) {
+      if(total <= target) break;
+      File file = entries.get(i);
+      long length = file.length();
+      // another process may have evicted it already
+      if(file.delete() || !file.exists()) {
+        total -= length;
+      }
+    }
+  }
+
+}
@@ -34,6 +34,8 @@ import unluac.decompile.condition.FixedCondition;
 import unluac.decompile.condition.OrCondition;
 import unluac.decompile.condition.TestCondition;
 import unluac.parse.LFunction;
+import unluac.stats.Instrumentation;
+import unluac.stats.Stage;
 import unluac.util.Stack;
 
 public class ControlFlowHandler {
@@ -114,18 +116,43 @@ public class ControlFlowHandler {
     state.r = r;
     state.code = d.code;
     state.labels = new boolean[d.code.length + 1];
+    Instrumentation instrumentation = d.getConfiguration().instrumentation;
+    instrumentation.begin(Stage.FIND_REVERSE_TARGETS, d.function);
     find_reverse_targets(state);
+    instrumentation.end(Stage.FIND_REVERSE_TARGETS);
+    instrumentation.begin(Stage.FIND_BRANCHES, d.function);
     find_branches(state);
+    instrumentation.end(Stage.FIND_BRANCHES);
+    instrumentation.begin(Stage.COMBINE_BRANCHES, d.function);
     combine_branches(state);
+    instrumentation.end(Stage.COMBINE_BRANCHES);
+    instrumentation.begin(Stage.RESOLVE_LINES, d.function);
     resolve_lines(state);
+    instrumentation.end(Stage.RESOLVE_LINES);
+    instrumentation.begin(Stage.INITIALIZE_BLOCKS, d.function);
     initialize_blocks(state);
+    instrumentation.end(Stage.INITIALIZE_BLOCKS);
+    instrumentation.begin(Stage.FIND_FIXED_BLOCKS, d.function);
     find_fixed_blocks(state);
+    instrumentation.end(Stage.FIND_FIXED_BLOCKS);
+    instrumentation.begin(Stage.FIND_WHILE_LOOPS, d.function);
     find_while_loops(state, d.declList);
+    instrumentation.end(Stage.FIND_WHILE_LOOPS);
+    instrumentation.begin(Stage.FIND_REPEAT_LOOPS, d.function);
     find_repeat_loops(state);
+    instrumentation.end(Stage.FIND_REPEAT_LOOPS);
+    instrumentation.begin(Stage.FIND_IF_BREAK, d.function);
     find_if_break(state, d.declList);
+    instrumentation.end(Stage.FIND_IF_BREAK);
+    instrumentation.begin(Stage.FIND_SET_BLOCKS, d.function);
     find_set_blocks(state);
+    instrumentation.end(Stage.FIND_SET_BLOCKS);
+    instrumentation.begin(Stage.FIND_PSEUDO_GOTO_STATEMENTS, d.function);
     find_pseudo_goto_statements(state, d.declList);
+    instrumentation.end(Stage.FIND_PSEUDO_GOTO_STATEMENTS);
+    instrumentation.begin(Stage.FIND_DO_BLOCKS, d.function);
     find_do_blocks(state, d.declList);
+    instrumentation.end(Stage.FIND_DO_BLOCKS);
     Collections.sort(state.blocks);
     // DEBUG: print branches stuff
     /*
@@ -38,6 +38,8 @@ import unluac.decompile.target.Target;
 import unluac.decompile.target.UpvalueTarget;
 import unluac.decompile.target.VariableTarget;
 import unluac.parse.LFunction;
+import unluac.stats.Instrumentation;
+import unluac.stats.Stage;
 import unluac.parse.LUpvalue;
 import unluac.util.Stack;
 
@@ -85,7 +87,9 @@ public class Decompiler {
     code = new Code(function);
     if(function.stripped || getConfiguration().variable == Configuration.VariableMode.NODEBUG) {
       if(getConfiguration().variable == Configuration.VariableMode.FINDER) {
+        getConfiguration().instrumentation.begin(Stage.VARIABLES, function);
         declList = VariableFinder.process(this, function.numParams, function.maximumStackSize);
+        getConfiguration().instrumentation.end(Stage.VARIABLES);
       } else {
         declList = new Declaration[function.maximumStackSize];
         int scopeEnd = length + function.header.version.outerblockscopeadjustment.get();
@@ -131,6 +135,8 @@ public class Decompiler {
   }
   
   public State decompile() {
+    Instrumentation instrumentation = getConfiguration().instrumentation;
+    instrumentation.begin(Stage.DECOMPILE, function);
     State state = new State();
     state.r = new Registers(registers, length, declList, f, getNoDebug());
     ControlFlowHandler.Result result = ControlFlowHandler.process(this, state.r);
@@ -140,11 +146,16 @@ public class Decompiler {
     for(int i = 1; i <= code.length; i++) {
       if(result.labels[i]) state.flags[i] |= Flag.LABELS.bit;
     }
+    instrumentation.begin(Stage.PROCESS_SEQUENCE, function);
     processSequence(state, blocks, 1, code.length);
+    instrumentation.end(Stage.PROCESS_SEQUENCE);
+    instrumentation.begin(Stage.RESOLVE, function);
     for(Block block : blocks) {
       block.resolve(state.r);
     }
+    instrumentation.end(Stage.RESOLVE);
     handleUnusedConstants(state.outer);
+    instrumentation.end(Stage.DECOMPILE, blocks.size());
     return state;
   }
   
@@ -157,8 +168,10 @@ public class Decompiler {
   }
   
   public void print(State state, Output out) {
+    getConfiguration().instrumentation.begin(Stage.PRINT, function);
     handleInitialDeclares(out);
     state.outer.print(this, out);
+    getConfiguration().instrumentation.end(Stage.PRINT);
   }
   
   private void handleUnusedConstants(Block outer) {
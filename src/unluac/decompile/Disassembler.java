@@ -112,6 +112,8 @@ public class Disassembler {
       }
     }
     
+    int[] lines = function.lineinfo.getLines();
+    LAbsLineInfo[] abslineinfo = function.lineinfo.getAbsLineInfo();
     int abslineinfoindex = 0;
     int upvalue_count = 0;
     
@@ -119,12 +121,12 @@ public class Disassembler {
       if(label[line - 1]) {
         out.println(".label\t" + "l" + line);
       }
-      if(function.abslineinfo != null && abslineinfoindex < function.abslineinfo.length && function.abslineinfo[abslineinfoindex].pc == line - 1) {
-        LAbsLineInfo info = function.abslineinfo[abslineinfoindex++];
+      if(abslineinfo != null && abslineinfoindex < abslineinfo.length && abslineinfo[abslineinfoindex].pc == line - 1) {
+        LAbsLineInfo info = abslineinfo[abslineinfoindex++];
         out.println(".abslineinfo\t" + info.pc + "\t" + info.line);
       }
-      if(line <= function.lines.length) {
-        out.print(".line\t" + function.lines[line - 1] + "\t");
+      if(line <= lines.length) {
+        out.print(".line\t" + lines[line - 1] + "\t");
       }
       Op op = code.op(line);
       String cpLabel = null;
@@ -154,16 +156,16 @@ public class Disassembler {
       }
       //out.println("\t" + code.opcode(line) + " " + code.A(line) + " " + code.B(line) + " " + code.C(line) + " " + code.Bx(line) + " " + code.sBx(line) + " " + code.codepoint(line));
     }
-    for(int line = function.code.length + 1; line <= function.lines.length; line++) {
-      if(function.abslineinfo != null && abslineinfoindex < function.abslineinfo.length && function.abslineinfo[abslineinfoindex].pc == line - 1) {
-        LAbsLineInfo info = function.abslineinfo[abslineinfoindex++];
+    for(int line = function.code.length + 1; line <= lines.length; line++) {
+      if(abslineinfo != null && abslineinfoindex < abslineinfo.length && abslineinfo[abslineinfoindex].pc == line - 1) {
+        LAbsLineInfo info = abslineinfo[abslineinfoindex++];
         out.println(".abslineinfo\t" + info.pc + "\t" + info.line);
       }
-      out.println(".line\t" + function.lines[line - 1]);
+      out.println(".line\t" + lines[line - 1]);
     }
-    if(function.abslineinfo != null) {
-      while(abslineinfoindex < function.abslineinfo.length) {
-        LAbsLineInfo info = function.abslineinfo[abslineinfoindex++];
+    if(abslineinfo != null) {
+      while(abslineinfoindex < abslineinfo.length) {
+        LAbsLineInfo info = abslineinfo[abslineinfoindex++];
         out.println(".abslineinfo\t" + info.pc + "\t" + info.line);
       }
     }
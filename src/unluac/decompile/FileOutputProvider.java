@@ -1,7 +1,6 @@
 package unluac.decompile;
 
 import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -10,7 +9,7 @@ public class FileOutputProvider implements OutputProvider {
   private final OutputStream out;
   private final String eol;
   
-  public FileOutputProvider(FileOutputStream out) {
+  public FileOutputProvider(OutputStream out) {
     this.out = new BufferedOutputStream(out);
     eol = System.lineSeparator();
   }
@@ -4,19 +4,25 @@ import unluac.Version;
 import unluac.decompile.expression.ConstantExpression;
 import unluac.decompile.expression.GlobalExpression;
 import unluac.parse.LFunction;
+import unluac.parse.LObject;
 
 public class Function {
 
   private Version version;
-  private Constant[] constants;
+  private final LObject[] objects;
+  private final Constant[] constants;
+  private final ConstantExpression[] expressions;
+  private final ConstantExpression[] globalNames;
   private final CodeExtract extract;
   
   public Function(LFunction function) {
     version = function.header.version;
-    constants = new Constant[function.constants.length];
-    for(int i = 0; i < constants.length; i++) {
-      constants[i] = new Constant(function.constants[i]);
-    }
+    // expressions are immutable, so each constant gets one of each kind,
+    // made the first time it is used
+    objects = function.constants;
+    constants = new Constant[objects.length];
+    expressions = new ConstantExpression[objects.length];
+    globalNames = new ConstantExpression[objects.length];
     extract = function.header.extractor;
   }
   
@@ -29,20 +35,39 @@ public class Function {
   }
 
   public ConstantExpression getGlobalName(int constantIndex) {
-    Constant constant = constants[constantIndex];
-    if(!constant.isIdentifierPermissive(version)) throw new IllegalStateException();
-    return new ConstantExpression(constant, true, constantIndex);
+    ConstantExpression expression = globalNames[constantIndex];
+    if(expression == null) {
+      Constant constant = getConstant(constantIndex);
+      if(!constant.isIdentifierPermissive(version)) throw new IllegalStateException();
+      expression = new ConstantExpression(constant, true, constantIndex);
+      globalNames[constantIndex] = expression;
+    }
+    return expression;
   }
   
   public ConstantExpression getConstantExpression(int constantIndex) {
-    Constant constant = constants[constantIndex];
-    return new ConstantExpression(constant, constant.isIdentifier(version), constantIndex);
+    ConstantExpression expression = expressions[constantIndex];
+    if(expression == null) {
+      Constant constant = getConstant(constantIndex);
+      expression = new ConstantExpression(constant, constant.isIdentifier(version), constantIndex);
+      expressions[constantIndex] = expression;
+    }
+    return expression;
   }
   
   public GlobalExpression getGlobalExpression(int constantIndex) {
     return new GlobalExpression(getGlobalName(constantIndex), constantIndex);
   }
   
+  private Constant getConstant(int constantIndex) {
+    Constant constant = constants[constantIndex];
+    if(constant == null) {
+      constant = new Constant(objects[constantIndex]);
+      constants[constantIndex] = constant;
+    }
+    return constant;
+  }
+  
   public Version getVersion() {
     return version;
   }
@@ -0,0 +1,638 @@
+package unluac.decompile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ExecutionException;
+
+import unluac.Version;
+import unluac.parse.LFunction;
+import unluac.parse.LNumber;
+import unluac.parse.LObject;
+import unluac.parse.LString;
+
+/**
+ * Infers the opcode map of a VM with permuted opcodes from a corpus of its
+ * chunks. Every instruction is checked against the operands of each op of
+ * the standard map: registers must be below the function's stack size,
+ * upvalue, constant and function indices in range (and constants of the
+ * right type), jump targets inside the function and the bits outside the
+ * op's fields zero. Functions must also end with a return, and conditional
+ * ops must be followed by a jump.
+ *
+ * Ops which pass or fail the checks on exactly the same instructions can't
+ * be told apart by them, so they are grouped; a group with more than one op
+ * (ADD and SUB, say) is reported as ambiguous. The search assigns a group to
+ * each opcode seen in the corpus, minimizing the number of failed checks, by
+ * branch and bound over several threads.
+ */
+public class OpcodeInference {
+
+  /* Weight of a function not ending with a return. */
+  private static final int TERMINAL = 16;
+  /* Share of an opcode's instructions which may fail an op's checks. */
+  private static final int TOLERANCE = 50;
+  private static final long NODE_LIMIT = 20000000L;
+  private static final long PROBE_LIMIT = 1000000L;
+
+  private Version version;
+  private CodeExtract ex;
+  private Op[] ops;
+  private int[] used;
+  private CodeExtract.Field[][] fields;
+
+  private long[] counts;
+  private long[][] violations;
+  private long[][] successors;
+  private int chunks;
+  private long instructions;
+
+  /* The result of infer, indexed by opcode. */
+  public Op[] map;
+  public List<List<Op>> alternatives;
+  public boolean[] unseen;
+  public long cost;
+  public boolean exhaustive;
+  /* Whether every probe for an alternative finished within its limit. */
+  public boolean alternativesExhaustive;
+
+  public void add(LFunction main) {
+    if(version == null) {
+      version = main.header.version;
+      ex = main.header.extractor;
+      init();
+    } else if(!main.header.version.getName().equals(version.getName())) {
+      throw new IllegalStateException("Chunk is for " + main.header.version.getName() + ", not " + version.getName());
+    }
+    gather(main);
+    chunks++;
+  }
+
+  private void init() {
+    OpcodeMap opmap = version.getOpcodeMap();
+    List<Op> list = new ArrayList<Op>();
+    for(int opcode = 0; opcode < opmap.size(); opcode++) {
+      Op op = opmap.get(opcode);
+      if(op != null && op != Op.EXTRABYTE) {
+        list.add(op);
+      }
+    }
+    ops = list.toArray(new Op[list.size()]);
+    used = new int[ops.length];
+    fields = new CodeExtract.Field[ops.length][];
+    for(int j = 0; j < ops.length; j++) {
+      used[j] = ~ex.op.clear(-1);
+      fields[j] = new CodeExtract.Field[ops[j].operands.length];
+      for(int i = 0; i < ops[j].operands.length; i++) {
+        fields[j][i] = field(ops[j].operands[i].field);
+        used[j] |= ~fields[j][i].clear(-1);
+      }
+    }
+    int size = ex.op.max() + 1;
+    counts = new long[size];
+    violations = new long[size][ops.length];
+    successors = new long[size][size];
+  }
+
+  private CodeExtract.Field field(OperandFormat.Field field) {
+    switch(field) {
+      case A: return ex.A;
+      case B: return ex.B;
+      case C: return ex.C;
+      case k: return ex.k;
+      case Ax: return ex.Ax;
+      case sJ: return ex.sJ;
+      case Bx: return ex.Bx;
+      case sBx: return ex.sBx;
+      case x: return ex.x;
+      default: throw new IllegalStateException();
+    }
+  }
+
+  private void gather(LFunction function) {
+    int length = function.code.length;
+    for(int line = 1; line <= length; line++) {
+      int codepoint = function.code[line - 1];
+      int opcode = ex.op.extract(codepoint);
+      counts[opcode]++;
+      instructions++;
+      for(int j = 0; j < ops.length; j++) {
+        if(!check(j, function, line, codepoint)) {
+          violations[opcode][j]++;
+        }
+      }
+      if(line < length) {
+        successors[opcode][ex.op.extract(function.code[line])]++;
+      }
+    }
+    if(length > 0) {
+      int opcode = ex.op.extract(function.code[length - 1]);
+      for(int j = 0; j < ops.length; j++) {
+        if(!isReturn(ops[j])) {
+          violations[opcode][j] += TERMINAL;
+        }
+      }
+    }
+    for(LFunction child : function.functions) {
+      gather(child);
+    }
+  }
+
+  private boolean check(int j, LFunction function, int line, int codepoint) {
+    if((codepoint & ~used[j]) != 0) return false;
+    Op op = ops[j];
+    int registers = function.maximumStackSize;
+    int upvalues = Math.max(function.numUpvalues, function.upvalues.length);
+    for(int i = 0; i < op.operands.length; i++) {
+      int x = fields[j][i].extract(codepoint);
+      switch(op.operands[i].format) {
+        case REGISTER:
+          if(x >= registers) return false;
+          break;
+        case UPVALUE:
+          if(x >= upvalues) return false;
+          break;
+        case REGISTER_K:
+          if(ex.is_k(x) ? ex.get_k(x) >= function.constants.length : x >= registers) return false;
+          break;
+        case REGISTER_K54:
+          if(ex.k.extract(codepoint) != 0 ? x >= function.constants.length : x >= registers) return false;
+          break;
+        case CONSTANT:
+          if(x >= function.constants.length) return false;
+          break;
+        case CONSTANT_INTEGER: {
+          if(x >= function.constants.length) return false;
+          LObject constant = function.constants[x];
+          if(!(constant instanceof LNumber) || !((LNumber) constant).integralType()) return false;
+          break;
+        }
+        case CONSTANT_STRING:
+          if(x >= function.constants.length || !(function.constants[x] instanceof LString)) return false;
+          break;
+        case FUNCTION:
+          if(x >= function.functions.length) return false;
+          break;
+        case JUMP:
+        case JUMP_NEGATIVE: {
+          int target;
+          try {
+            target = line + 1 + op.jumpField(codepoint, ex);
+          } catch(IllegalStateException e) {
+            break;
+          }
+          if(target < 1 || target > function.code.length) return false;
+          break;
+        }
+        default:
+          break;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isReturn(Op op) {
+    return op == Op.RETURN || op == Op.RETURN54 || op == Op.RETURN0 || op == Op.RETURN1;
+  }
+
+  private static boolean isJump(Op op) {
+    return op == Op.JMP || op == Op.JMP52 || op == Op.JMP54;
+  }
+
+  private static boolean isTest(Op op) {
+    switch(op) {
+      case EQ: case LT: case LE: case TEST: case TEST50: case TESTSET:
+      case EQ54: case LT54: case LE54: case EQK: case EQI: case LTI: case LEI: case GTI: case GEI:
+      case TEST54: case TESTSET54:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Searches for the best map for the chunks added so far.
+   */
+  public void infer(int threads) {
+    if(version == null) throw new IllegalStateException("No chunks to infer from");
+    List<Integer> observed = new ArrayList<Integer>();
+    for(int opcode = 0; opcode < counts.length; opcode++) {
+      if(counts[opcode] > 0) observed.add(opcode);
+    }
+    int[] vars = new int[observed.size()];
+    for(int v = 0; v < vars.length; v++) {
+      vars[v] = observed.get(v);
+    }
+
+    // group ops with identical checks; the last group is for opcodes which
+    // aren't any op, and has no capacity limit
+    Map<String, Integer> signatures = new HashMap<String, Integer>();
+    List<List<Integer>> groups = new ArrayList<List<Integer>>();
+    for(int j = 0; j < ops.length; j++) {
+      StringBuilder b = new StringBuilder();
+      b.append(isTest(ops[j])).append(isJump(ops[j]));
+      for(int opcode : vars) {
+        b.append(',').append(violations[opcode][j]);
+      }
+      String signature = b.toString();
+      Integer group = signatures.get(signature);
+      if(group == null) {
+        signatures.put(signature, group = groups.size());
+        groups.add(new ArrayList<Integer>());
+      }
+      groups.get(group).add(j);
+    }
+    int unknown = groups.size();
+
+    Search search = new Search(vars.length, unknown + 1);
+    for(int c = 0; c < unknown; c++) {
+      search.capacity[c] = groups.get(c).size();
+      Op op = ops[groups.get(c).get(0)];
+      search.test[c] = isTest(op);
+      search.jump[c] = isJump(op);
+    }
+    search.capacity[unknown] = vars.length;
+    for(int v = 0; v < vars.length; v++) {
+      long tolerance = counts[vars[v]] / TOLERANCE;
+      final long[] unary = search.unary[v];
+      List<Integer> domain = new ArrayList<Integer>();
+      for(int c = 0; c < unknown; c++) {
+        unary[c] = violations[vars[v]][groups.get(c).get(0)];
+        if(unary[c] <= tolerance) domain.add(c);
+      }
+      unary[unknown] = counts[vars[v]] + TERMINAL;
+      domain.add(unknown);
+      Collections.sort(domain, new Comparator<Integer>() {
+
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Long.compare(unary[a], unary[b]);
+        }
+
+      });
+      search.domains[v] = new int[domain.size()];
+      for(int i = 0; i < domain.size(); i++) {
+        search.domains[v][i] = domain.get(i);
+      }
+      for(int w = 0; w < vars.length; w++) {
+        search.pair[v][w] = successors[vars[v]][vars[w]];
+      }
+    }
+    search.run(threads);
+
+    // within a group, ops go to opcodes in the standard order
+    int size = Math.max(version.getOpcodeMap().size(), vars.length == 0 ? 0 : vars[vars.length - 1] + 1);
+    map = new Op[size];
+    alternatives = new ArrayList<List<Op>>();
+    unseen = new boolean[size];
+    for(int i = 0; i < size; i++) {
+      alternatives.add(null);
+    }
+    int[] next = new int[unknown];
+    for(int v = 0; v < vars.length; v++) {
+      int c = search.solution[v];
+      if(c == unknown) continue;
+      List<Integer> group = groups.get(c);
+      map[vars[v]] = ops[group.get(next[c]++)];
+      // the ops of the group and of any other group in an equally good map
+      List<Op> list = list(group);
+      for(int d : search.domains[v]) {
+        if(d != c && d != unknown && search.alternative[v][d]) {
+          list.addAll(list(groups.get(d)));
+        }
+      }
+      if(list.size() > 1) {
+        alternatives.set(vars[v], list);
+      }
+    }
+    List<Integer> leftover = new ArrayList<Integer>();
+    for(int c = 0; c < unknown; c++) {
+      List<Integer> group = groups.get(c);
+      leftover.addAll(group.subList(next[c], group.size()));
+    }
+    int opcode = 0;
+    for(int j : leftover) {
+      while(opcode < size && (counts[opcode] > 0 || map[opcode] != null)) opcode++;
+      if(opcode == size) break;
+      map[opcode] = ops[j];
+      unseen[opcode] = true;
+    }
+    cost = search.best.get();
+    exhaustive = !search.interrupted;
+    alternativesExhaustive = !search.probesInterrupted;
+  }
+
+  private List<Op> list(List<Integer> group) {
+    List<Op> list = new ArrayList<Op>(group.size());
+    for(int j : group) {
+      list.add(ops[j]);
+    }
+    return list;
+  }
+
+  /**
+   * Prints the inferred map in the format of the --opmap option.
+   */
+  public void print(Output out) {
+    out.println("; inferred from " + instructions + " instructions in " + chunks + " chunks (" + version.getName() + ")");
+    out.println("; " + cost + " failed checks" + (exhaustive ? "" : ", search incomplete") + (alternativesExhaustive ? "" : ", alternatives incomplete"));
+    for(int opcode = 0; opcode < map.length; opcode++) {
+      Op op = map[opcode];
+      if(op == null) {
+        if(opcode < counts.length && counts[opcode] > 0) {
+          out.println("; " + opcode + " unknown (" + counts[opcode] + " instructions)");
+        }
+        continue;
+      }
+      StringBuilder b = new StringBuilder();
+      b.append(".op ").append(opcode).append(' ').append(op.name);
+      if(unseen[opcode]) {
+        b.append(" ; unseen");
+      } else if(alternatives.get(opcode) != null) {
+        b.append(" ; ambiguous:");
+        for(Op alternative : alternatives.get(opcode)) {
+          b.append(' ').append(alternative.name);
+        }
+      }
+      out.println(b.toString());
+    }
+  }
+
+  /**
+   * Branch and bound over the assignment of groups to opcodes. Each opcode
+   * takes the group with the fewest remaining choices next, and a branch is
+   * cut once its cost plus the cheapest choices of the unassigned opcodes
+   * reaches the best complete assignment found so far.
+   */
+  private static class Search {
+
+    final long[][] unary;
+    final long[][] pair;
+    final int[][] domains;
+    final int[] capacity;
+    final boolean[] test;
+    final boolean[] jump;
+
+    final boolean[][] alternative;
+
+    final AtomicLong best = new AtomicLong(Long.MAX_VALUE);
+    final AtomicLong nodes = new AtomicLong();
+    int[] solution;
+    volatile boolean interrupted;
+    volatile boolean probesInterrupted;
+
+    Search(int vars, int groups) {
+      unary = new long[vars][groups];
+      pair = new long[vars][vars];
+      domains = new int[vars][];
+      capacity = new int[groups];
+      test = new boolean[groups];
+      jump = new boolean[groups];
+      alternative = new boolean[vars][groups];
+    }
+
+    void run(int threads) {
+      int[] assignment = new int[domains.length];
+      Arrays.fill(assignment, -1);
+      greedy(assignment.clone(), capacity.clone());
+      // split the top of the tree into tasks
+      List<Task> tasks = new ArrayList<Task>();
+      tasks.add(new Task(assignment, capacity.clone(), 0));
+      boolean expanded = true;
+      while(expanded && tasks.size() < 4 * threads) {
+        expanded = false;
+        List<Task> next = new ArrayList<Task>();
+        for(Task task : tasks) {
+          int v = select(task.assignment, task.remaining);
+          if(v < 0) {
+            next.add(task);
+            continue;
+          }
+          expanded = true;
+          for(int c : domains[v]) {
+            if(task.remaining[c] == 0) continue;
+            Task child = new Task(task.assignment.clone(), task.remaining.clone(), task.cost + cost(task.assignment, v, c));
+            child.assignment[v] = c;
+            child.remaining[c]--;
+            next.add(child);
+          }
+        }
+        tasks = next;
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for(final Task task : tasks) {
+          futures.add(executor.submit(new Runnable() {
+
+            @Override
+            public void run() {
+              branch(task.assignment, task.remaining, task.cost);
+            }
+
+          }));
+        }
+        for(Future<?> future : futures) {
+          future.get();
+        }
+        if(solution == null) return;
+        // then check which other groups each opcode could take at that cost
+        futures.clear();
+        for(int v = 0; v < domains.length; v++) {
+          for(final int c : domains[v]) {
+            if(c == solution[v]) continue;
+            final int var = v;
+            futures.add(executor.submit(new Runnable() {
+
+              @Override
+              public void run() {
+                alternative[var][c] = probe(var, c);
+              }
+
+            }));
+          }
+        }
+        for(Future<?> future : futures) {
+          future.get();
+        }
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch(ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    private static class Task {
+      final int[] assignment;
+      final int[] remaining;
+      final long cost;
+
+      Task(int[] assignment, int[] remaining, long cost) {
+        this.assignment = assignment;
+        this.remaining = remaining;
+        this.cost = cost;
+      }
+    }
+
+    private void greedy(int[] assignment, int[] remaining) {
+      long total = 0;
+      int v;
+      while((v = select(assignment, remaining)) >= 0) {
+        int choice = -1;
+        long cheapest = Long.MAX_VALUE;
+        for(int c : domains[v]) {
+          if(remaining[c] == 0) continue;
+          long cost = cost(assignment, v, c);
+          if(cost < cheapest) {
+            cheapest = cost;
+            choice = c;
+          }
+        }
+        if(choice < 0) return;
+        assignment[v] = choice;
+        remaining[choice]--;
+        total += cheapest;
+      }
+      record(total, assignment);
+    }
+
+    private void branch(int[] assignment, int[] remaining, long cost) {
+      if(nodes.incrementAndGet() > NODE_LIMIT) {
+        interrupted = true;
+        return;
+      }
+      if(bound(assignment, remaining, cost) >= best.get()) return;
+      int v = select(assignment, remaining);
+      if(v < 0) {
+        record(cost, assignment);
+        return;
+      }
+      for(int c : domains[v]) {
+        if(remaining[c] == 0) continue;
+        assignment[v] = c;
+        remaining[c]--;
+        branch(assignment, remaining, cost + cost(assignment, v, c));
+        remaining[c]++;
+        assignment[v] = -1;
+        if(interrupted) return;
+      }
+    }
+
+    /**
+     * Whether some assignment with v taking group c is as good as the best.
+     */
+    private boolean probe(int v, int c) {
+      int[] assignment = new int[domains.length];
+      Arrays.fill(assignment, -1);
+      int[] remaining = capacity.clone();
+      assignment[v] = c;
+      remaining[c]--;
+      long[] budget = {PROBE_LIMIT};
+      return reach(assignment, remaining, cost(assignment, v, c), budget);
+    }
+
+    private boolean reach(int[] assignment, int[] remaining, long cost, long[] budget) {
+      if(--budget[0] < 0) {
+        probesInterrupted = true;
+        return false;
+      }
+      if(bound(assignment, remaining, cost) > best.get()) return false;
+      int v = select(assignment, remaining);
+      if(v < 0) return true;
+      for(int c : domains[v]) {
+        if(remaining[c] == 0) continue;
+        assignment[v] = c;
+        remaining[c]--;
+        boolean reached = reach(assignment, remaining, cost + cost(assignment, v, c), budget);
+        remaining[c]++;
+        assignment[v] = -1;
+        if(reached) return true;
+        if(budget[0] < 0) return false;
+      }
+      return false;
+    }
+
+    /**
+     * The cost so far plus the cheapest choice of each unassigned opcode, or
+     * Long.MAX_VALUE if one has no choice left.
+     */
+    private long bound(int[] assignment, int[] remaining, long cost) {
+      long bound = cost;
+      for(int v = 0; v < assignment.length; v++) {
+        if(assignment[v] != -1) continue;
+        long cheapest = Long.MAX_VALUE;
+        for(int c : domains[v]) {
+          if(remaining[c] > 0) cheapest = Math.min(cheapest, unary[v][c]);
+        }
+        if(cheapest == Long.MAX_VALUE) return Long.MAX_VALUE;
+        bound += cheapest;
+      }
+      return bound;
+    }
+
+    /**
+     * The unassigned opcode with the fewest groups left to choose from,
+     * or -1 once all are assigned.
+     */
+    private int select(int[] assignment, int[] remaining) {
+      int selected = -1;
+      int fewest = Integer.MAX_VALUE;
+      for(int v = 0; v < assignment.length; v++) {
+        if(assignment[v] != -1) continue;
+        int choices = 0;
+        for(int c : domains[v]) {
+          if(remaining[c] > 0) choices++;
+        }
+        if(choices < fewest) {
+          fewest = choices;
+          selected = v;
+        }
+      }
+      return selected;
+    }
+
+    /**
+     * The cost of assigning group c to opcode v, including the conditional
+     * ops not followed by jumps among the assigned opcodes.
+     */
+    private long cost(int[] assignment, int v, int c) {
+      long cost = unary[v][c];
+      if(test[c] && !jump[c]) cost += pair[v][v];
+      for(int w = 0; w < assignment.length; w++) {
+        int d = assignment[w];
+        if(w == v || d == -1) continue;
+        if(test[c] && !jump[d]) cost += pair[v][w];
+        if(test[d] && !jump[c]) cost += pair[w][v];
+      }
+      return cost;
+    }
+
+    private synchronized void record(long cost, int[] assignment) {
+      long current = best.get();
+      if(cost < current || cost == current && solution != null && compare(assignment, solution) < 0) {
+        best.set(cost);
+        solution = assignment.clone();
+      }
+    }
+
+    private static int compare(int[] a, int[] b) {
+      for(int i = 0; i < a.length; i++) {
+        if(a[i] != b[i]) return Integer.compare(a[i], b[i]);
+      }
+      return 0;
+    }
+
+  }
+
+}
@@ -23,7 +23,7 @@ public enum Type {
     this.name = name;
   }
   
-  private static void initialize_lookup() {
+  private static synchronized void initialize_lookup() {
     if(lookup == null) {
       lookup = new HashMap<String, Type>();
       for(Type type : values()) {
@@ -14,12 +14,15 @@ public class ConstantExpression extends Expression {
   private final int index;
   private final int line;
   
+  private static final ConstantExpression TRUE = new ConstantExpression(new Constant(LBoolean.LTRUE), false, -1);
+  private static final ConstantExpression FALSE = new ConstantExpression(new Constant(LBoolean.LFALSE), false, -1);
+  
   public static ConstantExpression createNil(int line) {
     return new ConstantExpression(new Constant(LNil.NIL), false, -1, line);
   }
   
   public static ConstantExpression createBoolean(boolean v) {
-    return new ConstantExpression(new Constant(v ? LBoolean.LTRUE : LBoolean.LFALSE), false, -1);
+    return v ? TRUE : FALSE;
   }
   
   public static ConstantExpression createInteger(int i) {
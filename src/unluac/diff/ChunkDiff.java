@@ -0,0 +1,137 @@
+package unluac.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import unluac.parse.LFunction;
+
+/**
+ * Matches the function prototypes of two chunks by structural hash and
+ * reports which were added, removed or modified. Children are only matched
+ * within matched parents: first by identical subtrees, then by identical
+ * prototypes (whose children changed), and finally the remainder in order.
+ */
+public class ChunkDiff {
+
+  public static enum Kind {
+    ADDED("added"),
+    REMOVED("removed"),
+    MODIFIED("modified");
+
+    public final String name;
+
+    private Kind(String name) {
+      this.name = name;
+    }
+  }
+
+  public static class Change {
+
+    public final Kind kind;
+    public final FunctionHash before;
+    public final FunctionHash after;
+
+    private Change(Kind kind, FunctionHash before, FunctionHash after) {
+      this.kind = kind;
+      this.before = before;
+      this.after = after;
+    }
+
+    @Override
+    public String toString() {
+      switch(kind) {
+        case ADDED:
+          return kind.name + "\t" + after.path;
+        case REMOVED:
+          return kind.name + "\t" + before.path;
+        case MODIFIED:
+          if(before.path.equals(after.path)) {
+            return kind.name + "\t" + after.path;
+          } else {
+            return kind.name + "\t" + before.path + " -> " + after.path;
+          }
+        default:
+          throw new IllegalStateException();
+      }
+    }
+  }
+
+  public final FunctionHash before;
+  public final FunctionHash after;
+  public final List<Change> changes = new ArrayList<Change>();
+
+  public ChunkDiff(LFunction before, LFunction after) {
+    this.before = new FunctionHash(before);
+    this.after = new FunctionHash(after);
+    compare(this.before, this.after);
+  }
+
+  private void compare(FunctionHash f1, FunctionHash f2) {
+    if(f1.tree == f2.tree) {
+      return;
+    }
+    if(f1.self != f2.self) {
+      changes.add(new Change(Kind.MODIFIED, f1, f2));
+    }
+    FunctionHash[] c1 = f1.children;
+    FunctionHash[] c2 = f2.children;
+    int[] match = new int[c2.length];
+    boolean[] matched = new boolean[c1.length];
+    for(int j = 0; j < c2.length; j++) {
+      match[j] = -1;
+    }
+    for(int j = 0; j < c2.length; j++) {
+      match[j] = find(c1, matched, j, c2[j].tree, true);
+    }
+    for(int j = 0; j < c2.length; j++) {
+      if(match[j] == -1) {
+        match[j] = find(c1, matched, j, c2[j].self, false);
+      }
+    }
+    int i = 0;
+    for(int j = 0; j < c2.length; j++) {
+      if(match[j] == -1) {
+        while(i < c1.length && matched[i]) i++;
+        if(i < c1.length) {
+          matched[i] = true;
+          match[j] = i;
+        }
+      }
+    }
+    for(i = 0; i < c1.length; i++) {
+      if(!matched[i]) {
+        changes.add(new Change(Kind.REMOVED, c1[i], null));
+      }
+    }
+    for(int j = 0; j < c2.length; j++) {
+      if(match[j] == -1) {
+        changes.add(new Change(Kind.ADDED, null, c2[j]));
+      } else {
+        compare(c1[match[j]], c2[j]);
+      }
+    }
+  }
+
+  /**
+   * Finds an unmatched candidate with the given hash, preferring the one at
+   * the same position, and marks it as matched.
+   */
+  private static int find(FunctionHash[] candidates, boolean[] matched, int position, long hash, boolean tree) {
+    int found = -1;
+    if(position < candidates.length && !matched[position] && (tree ? candidates[position].tree : candidates[position].self) == hash) {
+      found = position;
+    } else {
+      for(int i = 0; i < candidates.length; i++) {
+        if(!matched[i] && (tree ? candidates[i].tree : candidates[i].self) == hash) {
+          found = i;
+          break;
+        }
+      }
+    }
+    if(found != -1) {
+      matched[found] = true;
+    }
+    return found;
+  }
+
+}
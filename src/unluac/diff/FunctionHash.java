@@ -0,0 +1,123 @@
+package unluac.diff;
+
+import unluac.parse.LBoolean;
+import unluac.parse.LFunction;
+import unluac.parse.LLocal;
+import unluac.parse.LNil;
+import unluac.parse.LNumber;
+import unluac.parse.LObject;
+import unluac.parse.LString;
+import unluac.parse.LUpvalue;
+
+/**
+ * Stable structural hashes of a function prototype. The hashed fields are
+ * the ones compared by Compare.Mode.NORMAL, so line information and the
+ * source name don't contribute. The self hash covers only the prototype
+ * itself; the tree hash also covers its children, in order.
+ */
+public class FunctionHash {
+
+  private static final long OFFSET = 0xcbf29ce484222325L;
+  private static final long PRIME = 0x100000001b3L;
+
+  public final LFunction function;
+  public final String path;
+  public final long self;
+  public final long tree;
+  public final FunctionHash[] children;
+
+  public FunctionHash(LFunction function) {
+    this(function, "main");
+  }
+
+  private FunctionHash(LFunction function, String path) {
+    this.function = function;
+    this.path = path;
+    self = hash_self(function);
+    children = new FunctionHash[function.functions.length];
+    long h = mix(OFFSET, self);
+    h = mix(h, children.length);
+    for(int i = 0; i < children.length; i++) {
+      children[i] = new FunctionHash(function.functions[i], path + "/f" + i);
+      h = mix(h, children[i].tree);
+    }
+    tree = h;
+  }
+
+  private static long hash_self(LFunction function) {
+    long h = OFFSET;
+    h = mix(h, function.maximumStackSize);
+    h = mix(h, function.numParams);
+    h = mix(h, function.numUpvalues);
+    h = mix(h, function.vararg);
+    h = mix(h, function.code.length);
+    for(int codepoint : function.code) {
+      h = mix(h, codepoint);
+    }
+    h = mix(h, function.constants.length);
+    for(LObject constant : function.constants) {
+      h = hash_object(h, constant);
+    }
+    h = mix(h, function.locals.length);
+    for(LLocal local : function.locals) {
+      h = mix(h, local.start);
+      h = mix(h, local.end);
+      h = hash_string(h, local.name.value);
+    }
+    h = mix(h, function.upvalues.length);
+    for(LUpvalue upvalue : function.upvalues) {
+      h = mix(h, upvalue.instack ? 1 : 0);
+      h = mix(h, upvalue.idx);
+      h = mix(h, upvalue.kind);
+      h = hash_string(h, upvalue.name);
+    }
+    return h;
+  }
+
+  private static long hash_object(long h, LObject object) {
+    if(object instanceof LNil) {
+      return mix(h, 0);
+    } else if(object instanceof LBoolean) {
+      return mix(mix(h, 1), ((LBoolean) object).value() ? 1 : 0);
+    } else if(object instanceof LNumber) {
+      // LNumber.equals compares across representations by value, so
+      // integers and floats must hash alike (and -0.0 like 0)
+      double value = ((LNumber) object).value();
+      if(value == 0.0) value = 0.0;
+      return mix(mix(h, 2), Double.doubleToRawLongBits(value));
+    } else if(object instanceof LString) {
+      LString string = (LString) object;
+      return hash_string(mix(h, string.islong ? 5 : 4), string.value);
+    } else {
+      throw new IllegalStateException("Unexpected constant: " + object);
+    }
+  }
+
+  private static long hash_string(long h, String s) {
+    if(s == null) {
+      return mix(h, -1);
+    }
+    h = mix(h, s.length());
+    for(int i = 0; i < s.length(); i++) {
+      h = (h ^ s.charAt(i)) * PRIME;
+    }
+    return h;
+  }
+
+  private static long mix(long h, long value) {
+    for(int i = 0; i < 8; i++) {
+      h = (h ^ (value & 0xFF)) * PRIME;
+      value >>>= 8;
+    }
+    return h;
+  }
+
+  public static String toHex(long hash) {
+    String s = Long.toHexString(hash);
+    while(s.length() < 16) {
+      s = "0" + s;
+    }
+    return s;
+  }
+
+}
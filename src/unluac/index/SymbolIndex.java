@@ -0,0 +1,405 @@
+package unluac.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import unluac.Configuration;
+import unluac.Main;
+import unluac.decompile.Code;
+import unluac.decompile.CodeExtract;
+import unluac.decompile.Op;
+import unluac.parse.LFunction;
+import unluac.parse.LObject;
+import unluac.parse.LString;
+import unluac.parse.LUpvalue;
+
+/**
+ * An inverted index from symbols (globals, fields, methods, string
+ * constants and upvalue names) to the chunks and functions that reference
+ * them, built from bytecode without decompiling. The index records the
+ * fingerprint of the configuration it was built under, since opcode and
+ * type maps change what a chunk's code means; it's rebuilt when that
+ * changes.
+ */
+public class SymbolIndex {
+
+  public static enum Kind {
+    GLOBAL("global"),
+    FIELD("field"),
+    METHOD("method"),
+    STRING("string"),
+    UPVALUE("upvalue");
+
+    public final String token;
+
+    private Kind(String token) {
+      this.token = token;
+    }
+
+    public static Kind get(String token) {
+      for(Kind kind : values()) {
+        if(kind.token.equals(token)) return kind;
+      }
+      return null;
+    }
+  }
+
+  private static class Chunk {
+    String path;
+    long size;
+    long modified;
+    List<String> functions = new ArrayList<String>();
+  }
+
+  private static class Posting {
+    Chunk chunk;
+    int function;
+  }
+
+  private static final int MAGIC = 0x554C5849; // "ULXI"
+  private static final int FORMAT = 2;
+
+  private String fingerprint = "";
+  private final Map<String, Chunk> chunks = new LinkedHashMap<String, Chunk>();
+  private final Map<String, List<Posting>> postings = new TreeMap<String, List<Posting>>();
+
+  public static SymbolIndex load(File file) throws IOException {
+    return load(file, null);
+  }
+
+  /**
+   * Loads the index, or starts an empty one if there is none yet, or if it
+   * was built under another fingerprint or an older format. A null
+   * fingerprint accepts any.
+   */
+  public static SymbolIndex load(File file, String fingerprint) throws IOException {
+    SymbolIndex index = new SymbolIndex();
+    if(fingerprint != null) index.fingerprint = fingerprint;
+    if(!file.exists()) return index;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if(in.readInt() != MAGIC) {
+        throw new IOException("Not a symbol index file: " + file);
+      }
+      if(in.readInt() != FORMAT) return index;
+      String stored = readString(in);
+      if(fingerprint != null && !fingerprint.equals(stored)) return index;
+      index.fingerprint = stored;
+      int chunkCount = readVarint(in);
+      Chunk[] table = new Chunk[chunkCount];
+      for(int i = 0; i < chunkCount; i++) {
+        Chunk chunk = new Chunk();
+        chunk.path = readString(in);
+        chunk.size = in.readLong();
+        chunk.modified = in.readLong();
+        int functionCount = readVarint(in);
+        for(int f = 0; f < functionCount; f++) {
+          chunk.functions.add(readString(in));
+        }
+        table[i] = chunk;
+        index.chunks.put(chunk.path, chunk);
+      }
+      int symbolCount = readVarint(in);
+      for(int i = 0; i < symbolCount; i++) {
+        String key = readString(in);
+        int postingCount = readVarint(in);
+        List<Posting> list = new ArrayList<Posting>(postingCount);
+        int chunkId = 0;
+        for(int p = 0; p < postingCount; p++) {
+          Posting posting = new Posting();
+          chunkId += readVarint(in);
+          posting.chunk = table[chunkId];
+          posting.function = readVarint(in);
+          list.add(posting);
+        }
+        index.postings.put(key, list);
+      }
+    } finally {
+      in.close();
+    }
+    return index;
+  }
+
+  public void save(File file) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      Map<Chunk, Integer> ids = new HashMap<Chunk, Integer>();
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      writeString(out, fingerprint);
+      writeVarint(out, chunks.size());
+      for(Chunk chunk : chunks.values()) {
+        ids.put(chunk, ids.size());
+        writeString(out, chunk.path);
+        out.writeLong(chunk.size);
+        out.writeLong(chunk.modified);
+        writeVarint(out, chunk.functions.size());
+        for(String function : chunk.functions) {
+          writeString(out, function);
+        }
+      }
+      writeVarint(out, postings.size());
+      for(Map.Entry<String, List<Posting>> entry : postings.entrySet()) {
+        writeString(out, entry.getKey());
+        List<Posting> list = entry.getValue();
+        writeVarint(out, list.size());
+        int previous = 0;
+        for(Posting posting : list) {
+          int chunkId = ids.get(posting.chunk);
+          writeVarint(out, chunkId - previous);
+          writeVarint(out, posting.function);
+          previous = chunkId;
+        }
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Indexes the chunk unless it is already indexed with the same size and
+   * modification time. Returns true if the chunk was (re)indexed. A chunk
+   * that fails to parse is left out of the index, so the next run tries
+   * it again.
+   */
+  public boolean update(File file, Configuration config) throws IOException {
+    String path = file.getAbsoluteFile().toPath().normalize().toString();
+    long size = file.length();
+    long modified = file.lastModified();
+    Chunk existing = chunks.get(path);
+    if(existing != null && existing.size == size && existing.modified == modified) {
+      return false;
+    }
+    if(existing != null) {
+      remove(existing);
+    }
+    LFunction main = Main.buffer_to_function(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), new Configuration(config));
+    Chunk chunk = new Chunk();
+    chunk.path = path;
+    chunk.size = size;
+    chunk.modified = modified;
+    try {
+      collect(chunk, main, "main");
+    } catch(RuntimeException e) {
+      remove(chunk);
+      throw e;
+    }
+    chunks.put(path, chunk);
+    return true;
+  }
+
+  /**
+   * Drops chunks whose files no longer exist. Returns the number removed.
+   */
+  public int prune() {
+    int removed = 0;
+    for(Chunk chunk : new ArrayList<Chunk>(chunks.values())) {
+      if(!new File(chunk.path).exists()) {
+        remove(chunk);
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Returns "kind name chunk function" lines for the query, which is either
+   * a bare symbol name or "kind:name".
+   */
+  public List<String> query(String query) {
+    List<String> results = new ArrayList<String>();
+    int colon = query.indexOf(':');
+    Kind only = colon >= 0 ? Kind.get(query.substring(0, colon)) : null;
+    String name = only != null ? query.substring(colon + 1) : query;
+    for(Kind kind : Kind.values()) {
+      if(only != null && kind != only) continue;
+      List<Posting> list = postings.get(key(kind, name));
+      if(list == null) continue;
+      for(Posting posting : list) {
+        results.add(kind.token + "\t" + name + "\t" + posting.chunk.path + "\t" + posting.chunk.functions.get(posting.function));
+      }
+    }
+    return results;
+  }
+
+  private void remove(Chunk chunk) {
+    chunks.remove(chunk.path);
+    Iterator<List<Posting>> it = postings.values().iterator();
+    while(it.hasNext()) {
+      List<Posting> list = it.next();
+      Iterator<Posting> pit = list.iterator();
+      while(pit.hasNext()) {
+        if(pit.next().chunk == chunk) pit.remove();
+      }
+      if(list.isEmpty()) it.remove();
+    }
+  }
+
+  private void collect(Chunk chunk, LFunction function, String path) {
+    int id = chunk.functions.size();
+    chunk.functions.add(path);
+    Set<String> seen = new HashSet<String>();
+    for(LObject constant : function.constants) {
+      if(constant instanceof LString && constant != LString.NULL) {
+        add(seen, chunk, id, Kind.STRING, constant.deref());
+      }
+    }
+    for(LUpvalue upvalue : function.upvalues) {
+      if(upvalue.name != null && !upvalue.name.isEmpty()) {
+        add(seen, chunk, id, Kind.UPVALUE, upvalue.name);
+      }
+    }
+    Code code = new Code(function);
+    CodeExtract ex = code.getExtractor();
+    for(int line = 1; line <= code.length; line++) {
+      Op op = code.op(line);
+      if(op == null) continue;
+      switch(op) {
+        case GETGLOBAL:
+        case SETGLOBAL:
+          add(seen, chunk, id, Kind.GLOBAL, function, code.Bx(line));
+          break;
+        case GETTABUP:
+          if(ex.is_k(code.C(line))) {
+            add(seen, chunk, id, isEnvironment(function, code.B(line)) ? Kind.GLOBAL : Kind.FIELD, function, ex.get_k(code.C(line)));
+          }
+          break;
+        case SETTABUP:
+          if(ex.is_k(code.B(line))) {
+            add(seen, chunk, id, isEnvironment(function, code.A(line)) ? Kind.GLOBAL : Kind.FIELD, function, ex.get_k(code.B(line)));
+          }
+          break;
+        case GETTABUP54:
+          add(seen, chunk, id, isEnvironment(function, code.B(line)) ? Kind.GLOBAL : Kind.FIELD, function, code.C(line));
+          break;
+        case SETTABUP54:
+          add(seen, chunk, id, isEnvironment(function, code.A(line)) ? Kind.GLOBAL : Kind.FIELD, function, code.B(line));
+          break;
+        case GETTABLE:
+          if(ex.is_k(code.C(line))) {
+            add(seen, chunk, id, Kind.FIELD, function, ex.get_k(code.C(line)));
+          }
+          break;
+        case SETTABLE:
+          if(ex.is_k(code.B(line))) {
+            add(seen, chunk, id, Kind.FIELD, function, ex.get_k(code.B(line)));
+          }
+          break;
+        case GETFIELD:
+          add(seen, chunk, id, Kind.FIELD, function, code.C(line));
+          break;
+        case SETFIELD:
+          add(seen, chunk, id, Kind.FIELD, function, code.B(line));
+          break;
+        case SELF:
+          if(ex.is_k(code.C(line))) {
+            add(seen, chunk, id, Kind.METHOD, function, ex.get_k(code.C(line)));
+          }
+          break;
+        case SELF54:
+          if(code.k(line)) {
+            add(seen, chunk, id, Kind.METHOD, function, code.C(line));
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    for(int i = 0; i < function.functions.length; i++) {
+      collect(chunk, function.functions[i], path + "/f" + i);
+    }
+  }
+
+  private static boolean isEnvironment(LFunction function, int upvalue) {
+    if(upvalue < 0 || upvalue >= function.upvalues.length) return false;
+    String name = function.upvalues[upvalue].name;
+    return name == null || name.isEmpty() || function.header.version.isEnvironmentTable(name);
+  }
+
+  private void add(Set<String> seen, Chunk chunk, int function, Kind kind, LFunction lfunction, int constant) {
+    if(constant >= 0 && constant < lfunction.constants.length) {
+      LObject object = lfunction.constants[constant];
+      if(object instanceof LString && object != LString.NULL) {
+        add(seen, chunk, function, kind, object.deref());
+      }
+    }
+  }
+
+  private void add(Set<String> seen, Chunk chunk, int function, Kind kind, String name) {
+    String key = key(kind, name);
+    if(!seen.add(key)) return;
+    List<Posting> list = postings.get(key);
+    if(list == null) {
+      list = new ArrayList<Posting>();
+      postings.put(key, list);
+    }
+    Posting posting = new Posting();
+    posting.chunk = chunk;
+    posting.function = function;
+    list.add(posting);
+  }
+
+  private static String key(Kind kind, String name) {
+    return kind.token + ":" + name;
+  }
+
+  private static void writeVarint(OutputStream out, int value) throws IOException {
+    while((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int readVarint(InputStream in) throws IOException {
+    int value = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = in.read();
+      if(b < 0) throw new IOException("Unexpected end of symbol index");
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while((b & 0x80) != 0);
+    return value;
+  }
+
+  private static void writeString(OutputStream out, String s) throws IOException {
+    writeVarint(out, s.length());
+    for(int i = 0; i < s.length(); i++) {
+      writeVarint(out, s.charAt(i));
+    }
+  }
+
+  private static String readString(InputStream in) throws IOException {
+    int length = readVarint(in);
+    StringBuilder b = new StringBuilder(length);
+    for(int i = 0; i < length; i++) {
+      b.append((char) readVarint(in));
+    }
+    return b.toString();
+  }
+
+}
@@ -1,22 +1,16 @@
 package unluac.parse;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 import unluac.Configuration;
 import unluac.Configuration.Mode;
 import unluac.Version;
-import unluac.assemble.Tokenizer;
 import unluac.decompile.CodeExtract;
-import unluac.decompile.Op;
 import unluac.decompile.OpcodeMap;
-import unluac.decompile.Type;
 import unluac.decompile.TypeMap;
+import unluac.stats.Stage;
 
 
 public class BHeader {
@@ -29,6 +23,25 @@ public class BHeader {
     0x1B, 0x46, 0x61, 0x74, 0x65, 0x2f, 0x5a, 0x1b
   };
 
+  public static final int SIGNATURE_LENGTH = signatureMiWifi.length;
+
+  /**
+   * Whether the bytes at the buffer's position start a chunk (in either
+   * signature), without consuming them. Fewer than SIGNATURE_LENGTH bytes
+   * are only compared as far as they go.
+   */
+  public static boolean isSignature(ByteBuffer buffer) {
+    return matches(buffer, signature) || matches(buffer, signatureMiWifi);
+  }
+
+  private static boolean matches(ByteBuffer buffer, byte[] signature) {
+    int length = Math.min(signature.length, buffer.remaining());
+    for(int i = 0; i < length; i++) {
+      if(buffer.get(buffer.position() + i) != signature[i]) return false;
+    }
+    return true;
+  }
+
   public final boolean debug = false;
   
   public final Configuration config;
@@ -53,6 +66,14 @@ public class BHeader {
   
   public final LFunction main;
   
+  /**
+   * Whether line info and locals can be skipped rather than parsed, as
+   * decompiling with --nodebug and --scan never look at them. --scan
+   * doesn't use upvalue names either.
+   */
+  public final boolean skipdebug;
+  public final boolean skipupvaluenames;
+  
   public BHeader(Version version, LHeader lheader, TypeMap typemap) {
     this(version, lheader, typemap, null);
   }
@@ -78,10 +99,17 @@ public class BHeader {
     this.typemap = typemap;
     opmap = version.getOpcodeMap();
     this.main = main;
+    skipdebug = false;
+    skipupvaluenames = false;
   }
   
   public BHeader(ByteBuffer buffer, Configuration config) {
     this.config = config;
+    skipdebug = config.mode == Mode.DECOMPILE && config.variable == Configuration.VariableMode.NODEBUG || config.mode == Mode.SCAN;
+    skipupvaluenames = config.mode == Mode.SCAN;
+    int start = buffer.position();
+    config.instrumentation.begin(Stage.PARSE, null);
+    config.instrumentation.begin(Stage.PARSE_HEADER, null);
     boolean origsigfailed = false;
     byte[] sigbuf = new byte[signature.length];
 
@@ -136,57 +164,13 @@ public class BHeader {
     
     try {
       if(config.typemap != null) {
-        Tokenizer t = new Tokenizer(new FileInputStream(new File(config.typemap)));
-        String tok;
-        Map<Integer, Type> usertypemap = new HashMap<Integer, Type>();
-        while((tok = t.next()) != null) {
-          if(tok.equals(".type")) {
-            tok = t.next();
-            if(tok == null) throw new RuntimeException("Unexpected end of typemap file.");
-            int opcode;
-            try {
-              opcode = Integer.parseInt(tok);
-            } catch(NumberFormatException e) {
-              throw new RuntimeException("Excepted number in typemap file, got \"" + tok + "\".");
-            }
-            tok = t.next();
-            if(tok == null) throw new RuntimeException("Unexpected end of typemap file.");
-            Type type = Type.get(tok);
-            if(type == null) throw new RuntimeException("Unknown type name \"" + tok + "\" in typemap file.");
-            usertypemap.put(opcode, type);
-          } else {
-            throw new RuntimeException("Unexpected token \"" + tok + "\" + in typemap file.");
-          }
-        }
-        typemap = new TypeMap(usertypemap);
+        typemap = MapProfile.get(config.typemap).getTypeMap();
       } else {
         typemap = version.getTypeMap();
       }
       
-      if(config.opmap != null) {      
-        Tokenizer t = new Tokenizer(new FileInputStream(new File(config.opmap)));
-        String tok;
-        Map<Integer, Op> useropmap = new HashMap<Integer, Op>();
-        while((tok = t.next()) != null) {
-          if(tok.equals(".op")) {
-            tok = t.next();
-            if(tok == null) throw new RuntimeException("Unexpected end of opmap file.");
-            int opcode;
-            try {
-              opcode = Integer.parseInt(tok);
-            } catch(NumberFormatException e) {
-              throw new RuntimeException("Excepted number in opmap file, got \"" + tok + "\".");
-            }
-            tok = t.next();
-            if(tok == null) throw new RuntimeException("Unexpected end of opmap file.");
-            Op op = version.getOpcodeMap().get(tok);
-            if(op == null) throw new RuntimeException("Unknown op name \"" + tok + "\" in opmap file.");
-            useropmap.put(opcode, op);
-          } else {
-            throw new RuntimeException("Unexpected token \"" + tok + "\" + in opmap file.");
-          }
-        }
-        opmap = new OpcodeMap(useropmap);
+      if(config.opmap != null) {
+        opmap = MapProfile.get(config.opmap).getOpcodeMap(version);
       } else {
         opmap = version.getOpcodeMap();
       }
@@ -202,6 +186,7 @@ public class BHeader {
       }
       // TODO: check this value
     }
+    config.instrumentation.end(Stage.PARSE_HEADER);
     main = function.parse(buffer, this);
     if(upvalues >= 0) {
       if(main.numUpvalues != upvalues) {
@@ -212,10 +197,15 @@ public class BHeader {
       main.upvalues[0].name = "_ENV";
     }
     main.setLevel(1);
+    config.instrumentation.end(Stage.PARSE, buffer.position() - start);
   }
   
   public void write(OutputStream out) throws IOException {
-    out.write(signature);
+    if(lheader_type == LHeaderType.TYPEMIWIFI) {
+      out.write(signatureMiWifi);
+    } else {
+      out.write(signature);
+    }
     int major = version.getVersionMajor();
     int minor = version.getVersionMinor();
     int versionNumber = (major << 4) | minor;
@@ -8,8 +8,8 @@ public class BInteger extends BObject {
   private final BigInteger big;
   private final int n;
   
-  private static BigInteger MAX_INT = null;
-  private static BigInteger MIN_INT = null;
+  private static final BigInteger MAX_INT = BigInteger.valueOf(Integer.MAX_VALUE);
+  private static final BigInteger MIN_INT = BigInteger.valueOf(Integer.MIN_VALUE);
   
   public BInteger(BInteger b) {
     this.big = b.big;
@@ -24,10 +24,6 @@ public class BInteger extends BObject {
   public BInteger(BigInteger big) {
     this.big = big;
     this.n = 0;
-    if(MAX_INT == null) {
-      MAX_INT = BigInteger.valueOf(Integer.MAX_VALUE);
-      MIN_INT = BigInteger.valueOf(Integer.MIN_VALUE);
-    }
   }
 
   public int asInt() {
@@ -40,6 +36,20 @@ public class BInteger extends BObject {
     }
   }
   
+  public boolean fitsLong() {
+    return big == null || big.bitLength() <= 63;
+  }
+  
+  public long asLong() {
+    if(big == null) {
+      return n;
+    } else if(big.bitLength() > 63) {
+      throw new IllegalStateException("The size of an integer is outside the range that unluac can handle.");
+    } else {
+      return big.longValue();
+    }
+  }
+  
   public int signum() {
     if(big == null) {
       if(n > 0) return 1;
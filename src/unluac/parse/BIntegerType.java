@@ -8,6 +8,15 @@ import java.nio.ByteOrder;
 
 abstract public class BIntegerType extends BObjectType<BInteger> {
   
+  private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+    
+    @Override
+    protected byte[] initialValue() {
+      return new byte[16];
+    }
+    
+  };
+  
   public static BIntegerType create50Type(boolean signed, int intSize, boolean allownegative) {
     return new BIntegerType50(signed, intSize, allownegative);
   }
@@ -24,6 +33,26 @@ abstract public class BIntegerType extends BObjectType<BInteger> {
     return new BInteger(n);
   }
   
+  /**
+   * Encodes the value into the buffer starting at offset and returns the
+   * number of bytes used (at most 10, or the integer size if larger).
+   */
+  abstract public int encode(long value, LHeader.LEndianness endianness, byte[] buffer, int offset);
+  
+  public void write(OutputStream out, BHeader header, long value) throws IOException {
+    byte[] bytes = scratch.get();
+    if(bytes.length < getEncodedMaximum()) {
+      bytes = new byte[getEncodedMaximum()];
+      scratch.set(bytes);
+    }
+    int length = encode(value, header.lheader.endianness, bytes, 0);
+    out.write(bytes, 0, length);
+  }
+  
+  protected int getEncodedMaximum() {
+    return 10;
+  }
+  
 }
 
 class BIntegerType50 extends BIntegerType {
@@ -82,7 +111,16 @@ class BIntegerType50 extends BIntegerType {
     return value;
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    buffer.position(buffer.position() + intSize);
+  }
+  
   protected void raw_write(OutputStream out, BHeader header, BInteger object) throws IOException {
+    if(object.fitsLong()) {
+      write(out, header, object.asLong());
+      return;
+    }
     byte[] bytes = object.littleEndianBytes(intSize);
     if(header.lheader.endianness == LHeader.LEndianness.LITTLE) {
       for(byte b : bytes) {
@@ -109,6 +147,42 @@ class BIntegerType50 extends BIntegerType {
     raw_write(out, header, object);
   }
   
+  @Override
+  public int encode(long value, LHeader.LEndianness endianness, byte[] buffer, int offset) {
+    if(!fits(value)) {
+      throw new IllegalStateException("Integer " + value + " doesn't fit in " + intSize + (signed ? " signed" : " unsigned") + " bytes");
+    }
+    long sign = value < 0 ? -1L : 0L;
+    if(endianness == LHeader.LEndianness.LITTLE) {
+      for(int i = 0; i < intSize; i++) {
+        buffer[offset + i] = (byte) (i < 8 ? value >>> (8 * i) : sign);
+      }
+    } else {
+      for(int i = 0; i < intSize; i++) {
+        buffer[offset + intSize - 1 - i] = (byte) (i < 8 ? value >>> (8 * i) : sign);
+      }
+    }
+    return intSize;
+  }
+  
+  private boolean fits(long value) {
+    if(!signed) {
+      return value >= 0 && (intSize >= 8 || value >>> (8 * intSize) == 0);
+    } else if(intSize >= 8) {
+      return true;
+    } else if(intSize == 0) {
+      return value == 0;
+    } else {
+      long bound = 1L << (8 * intSize - 1);
+      return value >= -bound && value < bound;
+    }
+  }
+  
+  @Override
+  protected int getEncodedMaximum() {
+    return intSize;
+  }
+  
   @Override
   public int getSize() {
     return intSize;
@@ -137,8 +211,33 @@ class BIntegerType54 extends BIntegerType {
     }
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    while((buffer.get() & 0x80) == 0);
+  }
+  
+  @Override
+  public int encode(long value, LHeader.LEndianness endianness, byte[] buffer, int offset) {
+    if(value < 0) {
+      throw new IllegalStateException("Illegal negative integer " + value);
+    }
+    int groups = 1;
+    while(groups < 10 && (value >>> (7 * groups)) != 0) {
+      groups++;
+    }
+    for(int i = 0; i < groups; i++) {
+      buffer[offset + groups - 1 - i] = (byte) ((value >>> (7 * i)) & 0x7F);
+    }
+    buffer[offset + groups - 1] |= 0x80;
+    return groups;
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, BInteger object) throws IOException {
+    if(object.fitsLong() && object.signum() >= 0) {
+      write(out, header, object.asLong());
+      return;
+    }
     byte[] bytes = object.compressedBytes();
     for(int i = bytes.length - 1; i >=1; i--) {
       out.write(bytes[i]);
@@ -15,6 +15,13 @@ abstract public class BObjectType<T extends BObject>  {
 
   abstract public void write(OutputStream out, BHeader header, T object) throws IOException;
   
+  /**
+   * Advances past an object without building it.
+   */
+  public void skip(ByteBuffer buffer, BHeader header) {
+    parse(buffer, header);
+  }
+  
   public final BList<T> parseList(ByteBuffer buffer, BHeader header) {
     return parseList(buffer, header, Version.ListLengthMode.STRICT, null);
   }
@@ -24,6 +31,31 @@ abstract public class BObjectType<T extends BObject>  {
   }
   
   public final BList<T> parseList(ByteBuffer buffer, BHeader header, Version.ListLengthMode mode, BInteger knownLength) {
+    return parseList(buffer, header, parseLength(buffer, header, mode, knownLength));
+  }
+  
+  /**
+   * Advances past a list without building its objects and returns its
+   * length.
+   */
+  public final BInteger skipList(ByteBuffer buffer, BHeader header, Version.ListLengthMode mode) {
+    return skipList(buffer, header, mode, null);
+  }
+  
+  public final BInteger skipList(final ByteBuffer buffer, final BHeader header, Version.ListLengthMode mode, BInteger knownLength) {
+    BInteger length = parseLength(buffer, header, mode, knownLength);
+    length.iterate(new Runnable() {
+      
+      @Override
+      public void run() {
+        skip(buffer, header);
+      }
+      
+    });
+    return length;
+  }
+  
+  private BInteger parseLength(ByteBuffer buffer, BHeader header, Version.ListLengthMode mode, BInteger knownLength) {
     BInteger length = header.integer.parse(buffer, header);
     switch(mode) {
       case STRICT:
@@ -36,7 +68,7 @@ abstract public class BObjectType<T extends BObject>  {
         if(length.signum() != 0) length = knownLength;
         break;
     }
-    return parseList(buffer, header, length);
+    return length;
   }
   
   public final BList<T> parseList(final ByteBuffer buffer, final BHeader header, BInteger length) {
@@ -53,7 +85,7 @@ abstract public class BObjectType<T extends BObject>  {
   }
   
   public final void writeList(OutputStream out, BHeader header, T[] array) throws IOException {
-    header.integer.write(out, header, new BInteger(array.length));
+    header.integer.write(out, header, array.length);
     for(T object : array) {
       write(out, header, object);
     }
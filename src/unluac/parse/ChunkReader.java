@@ -0,0 +1,132 @@
+package unluac.parse;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+import unluac.Configuration;
+import unluac.stats.Stage;
+
+/**
+ * Reads successive chunks from a channel which needn't be seekable or of
+ * known length, such as a pipe. Only the chunk being parsed is buffered: a
+ * chunk's size isn't known until it has been parsed, so a parse that runs
+ * out of data is retried once twice as much has been read (or the stream
+ * has ended), doubling the buffer when it's full. That keeps the total
+ * parsing work linear in the chunk's size. Any other parse error fails at
+ * once. Bytes between chunks that don't start a chunk signature are
+ * skipped.
+ */
+public class ChunkReader {
+
+  private static final int INITIAL_CAPACITY = 1 << 16;
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  private final ReadableByteChannel channel;
+  private final Configuration config;
+  private ByteBuffer buffer;
+  private boolean eof;
+  /* The stream offset of the buffer's position. */
+  private long offset;
+  private long start;
+  private long skipped;
+
+  public ChunkReader(ReadableByteChannel channel, Configuration config) {
+    this.channel = channel;
+    this.config = config;
+    buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.flip();
+  }
+
+  /**
+   * Parses the next chunk, or returns null at the end of the stream. Each
+   * chunk gets its own copy of the configuration.
+   */
+  public LFunction next() throws IOException {
+    if(!seek()) return null;
+    start = offset;
+    while(true) {
+      ByteBuffer view = buffer.duplicate();
+      view.order(ByteOrder.LITTLE_ENDIAN);
+      try {
+        LFunction main = new BHeader(view, new Configuration(config)).main;
+        offset += view.position() - buffer.position();
+        buffer.position(view.position());
+        return main;
+      } catch(BufferUnderflowException e) {
+        config.instrumentation.end(Stage.PARSE);
+        // the chunk may just be incomplete; it's an error once it can't be
+        if(eof) {
+          String message = e.getMessage() != null ? e.getMessage() : "unexpected end of stream";
+          throw new IllegalStateException("Chunk at byte " + start + ": " + message, e);
+        }
+        long wanted = 2L * buffer.remaining();
+        while(!eof && buffer.remaining() < wanted) {
+          fill();
+        }
+      } catch(RuntimeException e) {
+        config.instrumentation.end(Stage.PARSE);
+        throw new IllegalStateException("Chunk at byte " + start + ": " + e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * The stream offset of the last chunk returned.
+   */
+  public long getOffset() {
+    return start;
+  }
+
+  /**
+   * The number of bytes skipped between chunks so far.
+   */
+  public long getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Moves to the next chunk signature, returning false if there is none.
+   */
+  private boolean seek() throws IOException {
+    while(true) {
+      while(buffer.remaining() < BHeader.SIGNATURE_LENGTH && !eof) {
+        fill();
+      }
+      if(!buffer.hasRemaining()) return false;
+      if(BHeader.isSignature(buffer)) return true;
+      buffer.get();
+      offset++;
+      skipped++;
+    }
+  }
+
+  /**
+   * Reads what is available (at least one byte unless the stream ends),
+   * growing the buffer first if it's full.
+   */
+  private void fill() throws IOException {
+    if(buffer.remaining() == buffer.capacity()) {
+      if(buffer.capacity() >= MAXIMUM_CAPACITY) {
+        throw new IllegalStateException("Chunk at byte " + start + " is larger than " + MAXIMUM_CAPACITY + " bytes");
+      }
+      ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+      larger.order(ByteOrder.LITTLE_ENDIAN);
+      larger.put(buffer);
+      buffer = larger;
+    } else {
+      buffer.compact();
+    }
+    int n;
+    while((n = channel.read(buffer)) == 0) {
+    }
+    if(n == -1) {
+      eof = true;
+    }
+    buffer.flip();
+  }
+
+}
@@ -0,0 +1,72 @@
+package unluac.parse;
+
+import unluac.util.StringUtils;
+
+/**
+ * Structural statistics for a parsed chunk, gathered from the prototypes
+ * alone (no decompiler state is built).
+ */
+public class ChunkStatistics {
+
+  public final String version;
+  public int functions;
+  public int instructions;
+  public int maximumStackSize;
+  public int nils;
+  public int booleans;
+  public int integers;
+  public int floats;
+  public int strings;
+  public boolean debug;
+
+  public ChunkStatistics(LFunction main) {
+    version = main.header.version.getName();
+    gather(main);
+  }
+
+  private void gather(LFunction function) {
+    functions++;
+    instructions += function.code.length;
+    maximumStackSize = Math.max(maximumStackSize, function.maximumStackSize);
+    for(LObject constant : function.constants) {
+      if(constant instanceof LNil) {
+        nils++;
+      } else if(constant instanceof LBoolean) {
+        booleans++;
+      } else if(constant instanceof LNumber) {
+        if(((LNumber) constant).integralType()) {
+          integers++;
+        } else {
+          floats++;
+        }
+      } else if(constant instanceof LString) {
+        strings++;
+      }
+    }
+    if(!function.stripped) {
+      debug = true;
+    }
+    for(LFunction child : function.functions) {
+      gather(child);
+    }
+  }
+
+  public String toJSON(String file) {
+    StringBuilder b = new StringBuilder();
+    b.append("{\"file\":").append(StringUtils.toJSONString(file));
+    b.append(",\"version\":").append(StringUtils.toJSONString(version));
+    b.append(",\"functions\":").append(functions);
+    b.append(",\"instructions\":").append(instructions);
+    b.append(",\"maxstacksize\":").append(maximumStackSize);
+    b.append(",\"constants\":{");
+    b.append("\"nil\":").append(nils);
+    b.append(",\"boolean\":").append(booleans);
+    b.append(",\"integer\":").append(integers);
+    b.append(",\"float\":").append(floats);
+    b.append(",\"string\":").append(strings);
+    b.append("},\"debug\":").append(debug);
+    b.append("}");
+    return b.toString();
+  }
+
+}
@@ -12,11 +12,17 @@ public class LAbsLineInfoType extends BObjectType<LAbsLineInfo> {
     int line = header.integer.parse(buffer, header).asInt();
     return new LAbsLineInfo(pc, line);
   }
+  
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    header.integer.skip(buffer, header);
+    header.integer.skip(buffer, header);
+  }
 
   @Override
   public void write(OutputStream out, BHeader header, LAbsLineInfo object) throws IOException {
-    header.integer.write(out, header, new BInteger(object.pc));
-    header.integer.write(out, header, new BInteger(object.line));
+    header.integer.write(out, header, object.pc);
+    header.integer.write(out, header, object.line);
   }
 
 }
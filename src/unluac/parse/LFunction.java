@@ -8,8 +8,7 @@ public class LFunction extends BObject {
   public int lastlinedefined;
   public LFunction parent;
   public int[] code;
-  public int[] lines;
-  public LAbsLineInfo[] abslineinfo;
+  public LLineInfo lineinfo;
   public LLocal[] locals;
   public LObject[] constants;
   public LUpvalue[] upvalues;
@@ -22,13 +21,16 @@ public class LFunction extends BObject {
   public int level;
   
   public LFunction(BHeader header, LString name, int linedefined, int lastlinedefined, int[] code, int[] lines, LAbsLineInfo[] abslineinfo, LLocal[] locals, LObject[] constants, LUpvalue[] upvalues, LFunction[] functions, int maximumStackSize, int numUpValues, int numParams, int vararg) {
+    this(header, name, linedefined, lastlinedefined, code, new LLineInfo(lines, abslineinfo), locals, constants, upvalues, functions, maximumStackSize, numUpValues, numParams, vararg);
+  }
+  
+  public LFunction(BHeader header, LString name, int linedefined, int lastlinedefined, int[] code, LLineInfo lineinfo, LLocal[] locals, LObject[] constants, LUpvalue[] upvalues, LFunction[] functions, int maximumStackSize, int numUpValues, int numParams, int vararg) {
     this.header = header;
     this.name = name;
     this.linedefined = linedefined;
     this.lastlinedefined = lastlinedefined;
     this.code = code;
-    this.lines = lines;
-    this.abslineinfo = abslineinfo;
+    this.lineinfo = lineinfo;
     this.locals = locals;
     this.constants = constants;
     this.upvalues = upvalues;
@@ -40,6 +42,14 @@ public class LFunction extends BObject {
     this.stripped = false;
   }
   
+  /**
+   * The source line of the instruction at the given (0-based) pc, or -1 if
+   * unknown.
+   */
+  public int getLine(int pc) {
+    return lineinfo.getLine(pc, linedefined);
+  }
+  
   public void setLevel(int level) {
     this.level = level;
     for(LFunction f : functions) {
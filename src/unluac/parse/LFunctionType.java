@@ -10,6 +10,7 @@ import unluac.Version;
 import unluac.assemble.Directive;
 import unluac.decompile.CodeExtract;
 import unluac.decompile.Op;
+import unluac.stats.Stage;
 
 
 abstract public class LFunctionType extends BObjectType<LFunction> {
@@ -40,8 +41,9 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
     BList<LObject> constants;
     BList<LFunction> functions;
     BList<BInteger> lines;
-    BList<LAbsLineInfo> abslineinfo;
     BList<LLocal> locals;
+    LLineInfo lineinfo;
+    boolean stripped;
     LUpvalue upvalues[];
   }
   
@@ -53,23 +55,34 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
     if(header.debug) {
       System.out.println("-- parsing name...start...end...upvalues...params...varargs...stack");
     }
+    header.config.instrumentation.begin(Stage.PARSE_PROTOTYPES, null);
     LFunctionParseState s = new LFunctionParseState();
     parse_main(buffer, header, s);
-    int[] lines = new int[s.lines.length.asInt()];
-    for(int i = 0; i < lines.length; i++) {
-      lines[i] = s.lines.get(i).asInt();
-    }
-    LAbsLineInfo[] abslineinfo = null;
-    if(s.abslineinfo != null) {
-      abslineinfo = s.abslineinfo.asArray(new LAbsLineInfo[s.abslineinfo.length.asInt()]);
+    LLineInfo lineinfo = s.lineinfo;
+    LLocal[] locals;
+    if(s.locals != null) {
+      if(lineinfo == null) {
+        int[] lines = new int[s.lines.length.asInt()];
+        for(int i = 0; i < lines.length; i++) {
+          lines[i] = s.lines.get(i).asInt();
+        }
+        lineinfo = new LLineInfo(lines, null);
+      }
+      locals = s.locals.asArray(new LLocal[Math.max(0, s.locals.length.asInt())]);
+      s.stripped = lineinfo.getLength() == 0 && s.locals.length.asInt() == 0;
+    } else {
+      // skipped, with stripped set from the lengths
+      lineinfo = new LLineInfo(new int[0], null);
+      locals = new LLocal[0];
     }
-    LFunction lfunc = new LFunction(header, s.name, s.lineBegin, s.lineEnd, s.code, lines, abslineinfo, s.locals.asArray(new LLocal[Math.max(0, s.locals.length.asInt())]), s.constants.asArray(new LObject[Math.max(0, s.constants.length.asInt())]), s.upvalues, s.functions.asArray(new LFunction[Math.max(0, s.functions.length.asInt())]), s.maximumStackSize, s.lenUpvalues, s.lenParameter, s.vararg);
+    LFunction lfunc = new LFunction(header, s.name, s.lineBegin, s.lineEnd, s.code, lineinfo, locals, s.constants.asArray(new LObject[Math.max(0, s.constants.length.asInt())]), s.upvalues, s.functions.asArray(new LFunction[Math.max(0, s.functions.length.asInt())]), s.maximumStackSize, s.lenUpvalues, s.lenParameter, s.vararg);
     for(LFunction child : lfunc.functions) {
       child.parent = lfunc;
     }
-    if(s.lines.length.asInt() == 0 && s.locals.length.asInt() == 0) {
+    if(s.stripped) {
       lfunc.stripped = true;
     }
+    header.config.instrumentation.end(Stage.PARSE_PROTOTYPES);
     return lfunc;
   }
   
@@ -82,6 +95,9 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
       System.out.println("-- beginning to parse bytecode list");
     }
     s.length = header.integer.parse(buffer, header).asInt();
+    if(s.length < 0 || s.length > buffer.remaining() / 4) {
+      throw new TruncatedChunkException("Code length " + s.length + " exceeds the rest of the chunk");
+    }
     s.code = new int[s.length];
     for(int i = 0; i < s.length; i++) {
       s.code[i] = buffer.getInt();
@@ -100,7 +116,7 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
   }
   
   protected void write_code(OutputStream out, BHeader header, LFunction object) throws IOException {
-    header.integer.write(out, header, new BInteger(object.code.length));
+    header.integer.write(out, header, object.code.length);
     for(int i = 0; i < object.code.length; i++) {
       int codepoint = object.code[i];
       if(header.lheader.endianness == LHeader.LEndianness.LITTLE) {
@@ -121,13 +137,19 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
     if(header.debug) {
       System.out.println("-- beginning to parse constants list");
     }
-    s.constants = header.constant.parseList(buffer, header);
+    parse_constant_list(buffer, header, s);
     if(header.debug) {
       System.out.println("-- beginning to parse functions list");
     }
     s.functions = header.function.parseList(buffer, header);
   }
   
+  protected void parse_constant_list(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    header.config.instrumentation.begin(Stage.PARSE_CONSTANTS, null);
+    s.constants = header.constant.parseList(buffer, header);
+    header.config.instrumentation.end(Stage.PARSE_CONSTANTS);
+  }
+  
   protected void write_constants(OutputStream out, BHeader header, LFunction object) throws IOException {
     header.constant.writeList(out, header, object.constants);
     header.function.writeList(out, header, object.functions);
@@ -151,18 +173,31 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
   }
   
   protected void parse_debug(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
-    if(header.debug) {
-      System.out.println("-- beginning to parse source lines list");
-    }
-    s.lines = header.integer.parseList(buffer, header);
-    if(header.debug) {
-      System.out.println("-- beginning to parse locals list");
+    header.config.instrumentation.begin(Stage.PARSE_DEBUG, null);
+    if(header.skipdebug) {
+      // upvalue names are still parsed for --nodebug, whose output uses them
+      int lines = header.integer.skipList(buffer, header, Version.ListLengthMode.STRICT).asInt();
+      int locals = header.local.skipList(buffer, header, header.version.locallengthmode.get()).asInt();
+      s.stripped = lines == 0 && locals == 0;
+    } else {
+      if(header.debug) {
+        System.out.println("-- beginning to parse source lines list");
+      }
+      s.lines = header.integer.parseList(buffer, header);
+      if(header.debug) {
+        System.out.println("-- beginning to parse locals list");
+      }
+      s.locals = header.local.parseList(buffer, header, header.version.locallengthmode.get());
     }
-    s.locals = header.local.parseList(buffer, header, header.version.locallengthmode.get());
     parse_upvalue_names(buffer, header, s);
+    header.config.instrumentation.end(Stage.PARSE_DEBUG);
   }
   
   protected void parse_upvalue_names(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    if(header.skipupvaluenames) {
+      header.string.skipList(buffer, header, header.version.upvaluelengthmode.get(), new BInteger(s.lenUpvalues));
+      return;
+    }
     if(header.debug) {
       System.out.println("-- beginning to parse upvalue names list");
     }
@@ -174,9 +209,10 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
   }
   
   protected void write_debug(OutputStream out, BHeader header, LFunction object) throws IOException {
-    header.integer.write(out, header, new BInteger(object.lines.length));
-    for(int i = 0; i < object.lines.length; i++) {
-      header.integer.write(out, header, new BInteger(object.lines[i]));
+    int[] lines = object.lineinfo.getLines();
+    header.integer.write(out, header, lines.length);
+    for(int i = 0; i < lines.length; i++) {
+      header.integer.write(out, header, lines[i]);
     }
     header.local.writeList(out, header, object.locals);
     int upvalueNameLength = 0;
@@ -187,7 +223,7 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
         break;
       }
     }
-    header.integer.write(out, header, new BInteger(upvalueNameLength));
+    header.integer.write(out, header, upvalueNameLength);
     for(int i = 0; i < upvalueNameLength; i++) {
       header.string.write(out, header, object.upvalues[i].bname);
     }
@@ -226,7 +262,7 @@ class LFunctionType50 extends LFunctionType {
   @Override
   public void write(OutputStream out, BHeader header, LFunction object) throws IOException {
     header.string.write(out, header, object.name);
-    header.integer.write(out, header, new BInteger(object.linedefined));
+    header.integer.write(out, header, object.linedefined);
     out.write(object.numUpvalues);
     out.write(object.numParams);
     out.write(object.vararg);
@@ -269,8 +305,8 @@ class LFunctionType51 extends LFunctionType {
   @Override
   public void write(OutputStream out, BHeader header, LFunction object) throws IOException {
     header.string.write(out, header, object.name);
-    header.integer.write(out, header, new BInteger(object.linedefined));
-    header.integer.write(out, header, new BInteger(object.lastlinedefined));
+    header.integer.write(out, header, object.linedefined);
+    header.integer.write(out, header, object.lastlinedefined);
     out.write(object.numUpvalues);
     out.write(object.numParams);
     out.write(object.vararg);
@@ -311,8 +347,8 @@ class LFunctionType52 extends LFunctionType {
   
   @Override
   public void write(OutputStream out, BHeader header, LFunction object) throws IOException {
-    header.integer.write(out, header, new BInteger(object.linedefined));
-    header.integer.write(out, header, new BInteger(object.lastlinedefined));
+    header.integer.write(out, header, object.linedefined);
+    header.integer.write(out, header, object.lastlinedefined);
     out.write(object.numParams);
     out.write(object.vararg);
     out.write(object.maximumStackSize);
@@ -335,7 +371,7 @@ class LFunctionType53 extends LFunctionType {
     s.vararg = 0xFF & buffer.get();
     s.maximumStackSize = 0xFF & buffer.get();
     parse_code(buffer, header, s);
-    s.constants = header.constant.parseList(buffer, header);
+    parse_constant_list(buffer, header, s);
     parse_upvalues(buffer, header, s);
     s.functions = header.function.parseList(buffer, header);
     parse_debug(buffer, header, s);
@@ -356,8 +392,8 @@ class LFunctionType53 extends LFunctionType {
   @Override
   public void write(OutputStream out, BHeader header, LFunction object) throws IOException {
     header.string.write(out, header, object.name);
-    header.integer.write(out, header, new BInteger(object.linedefined));
-    header.integer.write(out, header, new BInteger(object.lastlinedefined));
+    header.integer.write(out, header, object.linedefined);
+    header.integer.write(out, header, object.lastlinedefined);
     out.write(object.numParams);
     out.write(object.vararg);
     out.write(object.maximumStackSize);
@@ -374,20 +410,43 @@ class LFunctionType54 extends LFunctionType {
   
   @Override
   protected void parse_debug(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
-    // TODO: process line info correctly
-    s.lines = (new BIntegerType50(false, 1, false)).parseList(buffer, header);
-    s.abslineinfo = header.abslineinfo.parseList(buffer, header);
-    s.locals = header.local.parseList(buffer, header);
+    header.config.instrumentation.begin(Stage.PARSE_DEBUG, null);
+    if(header.skipdebug) {
+      int lines = (new BIntegerType50(false, 1, false)).skipList(buffer, header, Version.ListLengthMode.STRICT).asInt();
+      header.abslineinfo.skipList(buffer, header, Version.ListLengthMode.STRICT);
+      int locals = header.local.skipList(buffer, header, Version.ListLengthMode.STRICT).asInt();
+      s.stripped = lines == 0 && locals == 0;
+    } else {
+      // the line info is kept raw and decoded on demand
+      int length = header.integer.parse(buffer, header).asInt();
+      if(length < 0 || length > buffer.remaining()) {
+        throw new TruncatedChunkException("Line info length " + length + " exceeds the rest of the chunk");
+      }
+      byte[] lines = new byte[length];
+      buffer.get(lines);
+      int abscount = header.integer.parse(buffer, header).asInt();
+      int start = buffer.position();
+      for(int i = 0; i < abscount; i++) {
+        header.abslineinfo.skip(buffer, header);
+      }
+      byte[] abslineinfo = new byte[buffer.position() - start];
+      buffer.position(start);
+      buffer.get(abslineinfo);
+      s.lineinfo = new LLineInfo(header, lines, abslineinfo, abscount);
+      s.locals = header.local.parseList(buffer, header);
+    }
     parse_upvalue_names(buffer, header, s);
+    header.config.instrumentation.end(Stage.PARSE_DEBUG);
   }
   
   @Override
   protected void write_debug(OutputStream out, BHeader header, LFunction object) throws IOException {
-    header.integer.write(out, header, new BInteger(object.lines.length));
-    for(int i = 0; i < object.lines.length; i++) {
-      out.write(object.lines[i]);
+    int[] lines = object.lineinfo.getLines();
+    header.integer.write(out, header, lines.length);
+    for(int i = 0; i < lines.length; i++) {
+      out.write(lines[i]);
     }
-    header.abslineinfo.writeList(out, header, object.abslineinfo);
+    header.abslineinfo.writeList(out, header, object.lineinfo.getAbsLineInfo());
     header.local.writeList(out, header, object.locals);
     int upvalueNameLength = 0;
     for(LUpvalue upvalue : object.upvalues) {
@@ -397,7 +456,7 @@ class LFunctionType54 extends LFunctionType {
         break;
       }
     }
-    header.integer.write(out, header, new BInteger(upvalueNameLength));
+    header.integer.write(out, header, upvalueNameLength);
     for(int i = 0; i < upvalueNameLength; i++) {
       header.string.write(out, header, object.upvalues[i].bname);
     }
@@ -411,7 +470,7 @@ class LFunctionType54 extends LFunctionType {
     s.vararg = 0xFF & buffer.get();
     s.maximumStackSize = 0xFF & buffer.get();
     parse_code(buffer, header, s);
-    s.constants = header.constant.parseList(buffer, header);
+    parse_constant_list(buffer, header, s);
     parse_upvalues(buffer, header, s);
     s.functions = header.function.parseList(buffer, header);
     parse_debug(buffer, header, s);
@@ -432,8 +491,8 @@ class LFunctionType54 extends LFunctionType {
   @Override
   public void write(OutputStream out, BHeader header, LFunction object) throws IOException {
     header.string.write(out, header, object.name);
-    header.integer.write(out, header, new BInteger(object.linedefined));
-    header.integer.write(out, header, new BInteger(object.lastlinedefined));
+    header.integer.write(out, header, object.linedefined);
+    header.integer.write(out, header, object.lastlinedefined);
     out.write(object.numParams);
     out.write(object.vararg);
     out.write(object.maximumStackSize);
@@ -461,4 +520,18 @@ class LFunctionTypeMiWifi extends LFunctionType51 {
     parse_constants(buffer, header, s);
     parse_debug(buffer, header, s);
   }
+  
+  @Override
+  public void write(OutputStream out, BHeader header, LFunction object) throws IOException {
+    out.write(object.numParams);
+    header.string.write(out, header, object.name);
+    out.write(object.numUpvalues);
+    header.integer.write(out, header, object.linedefined);
+    out.write(object.vararg);
+    header.integer.write(out, header, object.lastlinedefined);
+    out.write(object.maximumStackSize);
+    write_code(out, header, object);
+    write_constants(out, header, object);
+    write_debug(out, header, object);
+  }
 }
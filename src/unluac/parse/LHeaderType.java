@@ -509,4 +509,13 @@ class LHeaderTypeMiWifi extends LHeaderType51 {
       s.linteger = new LNumberType(8, true, LNumberType.NumberMode.MODE_INTEGER);
     }
   }
+  
+  @Override
+  protected void write_number_integrality(OutputStream out, BHeader header, LHeader object) throws IOException {
+    int code = object.number.integral ? 1 : 0;
+    if(object.linteger != null) {
+      code |= object.linteger.size;
+    }
+    out.write((byte) code);
+  }
 }
@@ -0,0 +1,150 @@
+package unluac.parse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A function's line info: one entry per instruction (the absolute line
+ * before 5.4, a signed delta from the previous instruction's line from 5.4
+ * on) and, from 5.4 on, the absolute line info marking where the deltas
+ * restart.
+ *
+ * Parsed 5.4 line info keeps the raw bytes, which are usually larger than
+ * the code but seldom read; the entries and absolute line info are decoded
+ * the first time they are asked for. Line lookups only decode the absolute
+ * line info, into a pair of int arrays, and sum deltas from there.
+ */
+public class LLineInfo {
+
+  /* Marks an instruction whose line is in the absolute line info. */
+  private static final int ABSLINEINFO = -0x80;
+
+  private final BHeader header;
+  private final byte[] encoded;
+  private final byte[] encodedabs;
+  private final int abscount;
+
+  private int[] lines;
+  private LAbsLineInfo[] abslineinfo;
+  private int[] abspc;
+  private int[] absline;
+
+  public LLineInfo(int[] lines, LAbsLineInfo[] abslineinfo) {
+    this.header = null;
+    this.encoded = null;
+    this.encodedabs = null;
+    this.abscount = abslineinfo != null ? abslineinfo.length : 0;
+    this.lines = lines;
+    this.abslineinfo = abslineinfo;
+  }
+
+  /**
+   * 5.4 line info from its raw entries and the raw bytes of its absolute
+   * line info list (without the length).
+   */
+  public LLineInfo(BHeader header, byte[] encoded, byte[] encodedabs, int abscount) {
+    this.header = header;
+    this.encoded = encoded;
+    this.encodedabs = encodedabs;
+    this.abscount = abscount;
+  }
+
+  public boolean isEncoded() {
+    return encoded != null;
+  }
+
+  /**
+   * The number of entries, which doesn't need decoding.
+   */
+  public int getLength() {
+    return encoded != null ? encoded.length : lines.length;
+  }
+
+  /**
+   * The raw size of the absolute line info in bytes, if encoded.
+   */
+  public int getEncodedAbsSize() {
+    return encodedabs != null ? encodedabs.length : 0;
+  }
+
+  /**
+   * The entries; 5.4 deltas are given as the unsigned bytes stored.
+   */
+  public synchronized int[] getLines() {
+    if(lines == null) {
+      lines = new int[encoded.length];
+      for(int i = 0; i < encoded.length; i++) {
+        lines[i] = 0xFF & encoded[i];
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * The absolute line info, or null before 5.4.
+   */
+  public synchronized LAbsLineInfo[] getAbsLineInfo() {
+    if(abslineinfo == null && encoded != null) {
+      decodeAbs();
+      abslineinfo = new LAbsLineInfo[abscount];
+      for(int i = 0; i < abscount; i++) {
+        abslineinfo[i] = new LAbsLineInfo(abspc[i], absline[i]);
+      }
+    }
+    return abslineinfo;
+  }
+
+  /**
+   * The source line of the instruction at the given (0-based) pc, or -1 if
+   * there is no line info for it. 5.4 deltas before the first absolute
+   * line are relative to the line the function was defined on.
+   */
+  public synchronized int getLine(int pc, int linedefined) {
+    if(pc < 0 || pc >= getLength()) {
+      return -1;
+    } else if(encoded == null && abslineinfo == null) {
+      return lines[pc];
+    }
+    if(abspc == null) {
+      decodeAbs();
+    }
+    // the last absolute line at or before pc, as in luaG_getfuncline
+    int low = 0;
+    int high = abscount - 1;
+    int base = -1;
+    while(low <= high) {
+      int mid = (low + high) >>> 1;
+      if(abspc[mid] <= pc) {
+        base = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    int basepc = base == -1 ? -1 : abspc[base];
+    int line = base == -1 ? linedefined : absline[base];
+    while(basepc++ < pc) {
+      int delta = encoded != null ? encoded[basepc] : (byte) lines[basepc];
+      if(delta == ABSLINEINFO) return -1;
+      line += delta;
+    }
+    return line;
+  }
+
+  private void decodeAbs() {
+    abspc = new int[abscount];
+    absline = new int[abscount];
+    if(encoded == null) {
+      for(int i = 0; i < abscount; i++) {
+        abspc[i] = abslineinfo[i].pc;
+        absline[i] = abslineinfo[i].line;
+      }
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(encodedabs);
+    for(int i = 0; i < abscount; i++) {
+      abspc[i] = header.integer.parse(buffer, header).asInt();
+      absline[i] = header.integer.parse(buffer, header).asInt();
+    }
+  }
+
+}
@@ -21,11 +21,18 @@ public class LLocalType extends BObjectType<LLocal> {
     return new LLocal(name, start, end);
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    header.string.skip(buffer, header);
+    header.integer.skip(buffer, header);
+    header.integer.skip(buffer, header);
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LLocal object) throws IOException {
     header.string.write(out, header, object.name);
-    header.integer.write(out, header, new BInteger(object.start));
-    header.integer.write(out, header, new BInteger(object.end));
+    header.integer.write(out, header, object.start);
+    header.integer.write(out, header, object.end);
   }
 
 }
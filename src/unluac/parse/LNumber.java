@@ -4,12 +4,61 @@ import unluac.decompile.PrintFlag;
 
 public abstract class LNumber extends LObject {
 
+  /* Small integral values are shared, as numbers are immutable. */
+  private static final int CACHE_LOW = -128;
+  private static final int CACHE_HIGH = 1024;
+  
+  private static final LIntNumber[] ints = new LIntNumber[CACHE_HIGH - CACHE_LOW];
+  private static final LLongNumber[] longs = new LLongNumber[CACHE_HIGH - CACHE_LOW];
+  private static final LDoubleNumber[][] doubles = new LDoubleNumber[LNumberType.NumberMode.values().length][CACHE_HIGH - CACHE_LOW];
+  
   public static LNumber makeInteger(int number) {
-    return new LIntNumber(number);
+    return intNumber(number);
+  }
+  
+  // Racing threads may each fill a cache slot; any of the copies will do.
+  
+  static LIntNumber intNumber(int number) {
+    if(number < CACHE_LOW || number >= CACHE_HIGH) {
+      return new LIntNumber(number);
+    }
+    LIntNumber value = ints[number - CACHE_LOW];
+    if(value == null) {
+      value = new LIntNumber(number);
+      ints[number - CACHE_LOW] = value;
+    }
+    return value;
+  }
+  
+  static LLongNumber longNumber(long number) {
+    if(number < CACHE_LOW || number >= CACHE_HIGH) {
+      return new LLongNumber(number);
+    }
+    LLongNumber value = longs[(int) number - CACHE_LOW];
+    if(value == null) {
+      value = new LLongNumber(number);
+      longs[(int) number - CACHE_LOW] = value;
+    }
+    return value;
+  }
+  
+  static LDoubleNumber doubleNumber(double number, LNumberType.NumberMode mode) {
+    int n = (int) number;
+    // the bits also tell apart -0.0 and NaN
+    if(n < CACHE_LOW || n >= CACHE_HIGH || Double.doubleToRawLongBits(number) != Double.doubleToRawLongBits(n)) {
+      return new LDoubleNumber(number, mode);
+    }
+    LDoubleNumber[] cache = doubles[mode.ordinal()];
+    LDoubleNumber value = cache[n - CACHE_LOW];
+    if(value == null) {
+      value = new LDoubleNumber(number, mode);
+      cache[n - CACHE_LOW] = value;
+    }
+    return value;
   }
   
   public static LNumber makeDouble(double x) {
-    return new LDoubleNumber(x, LNumberType.NumberMode.MODE_FLOAT);
+    return doubleNumber(x, LNumberType.NumberMode.MODE_FLOAT);
   }
   
   @Override
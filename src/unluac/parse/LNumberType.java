@@ -52,10 +52,10 @@ public class LNumberType extends BObjectType<LNumber> {
     if(integral) {
       switch(size) {
         case 4:
-          value = new LIntNumber(buffer.getInt());
+          value = LNumber.intNumber(buffer.getInt());
           break;
         case 8:
-          value = new LLongNumber(buffer.getLong());
+          value = LNumber.longNumber(buffer.getLong());
           break;
       }
     } else {
@@ -64,7 +64,7 @@ public class LNumberType extends BObjectType<LNumber> {
           value = new LFloatNumber(buffer.getFloat(), mode);
           break;
         case 8:
-          value = new LDoubleNumber(buffer.getDouble(), mode);
+          value = LNumber.doubleNumber(buffer.getDouble(), mode);
           break;
       }
     }
@@ -107,7 +107,7 @@ public class LNumberType extends BObjectType<LNumber> {
           return new LFloatNumber(Float.intBitsToFloat(fbits), mode);
         }
         case 8:
-          return new LDoubleNumber(Double.longBitsToDouble(Double.doubleToRawLongBits(Double.NaN) ^ bits), mode);
+          return LNumber.doubleNumber(Double.longBitsToDouble(Double.doubleToRawLongBits(Double.NaN) ^ bits), mode);
         default:
           throw new IllegalStateException();
       }
@@ -118,9 +118,9 @@ public class LNumberType extends BObjectType<LNumber> {
     if(integral) {
       switch(size) {
         case 4:
-          return new LIntNumber((int) x);
+          return LNumber.intNumber((int) x);
         case 8:
-          return new LLongNumber((long) x);
+          return LNumber.longNumber((long) x);
         default:
           throw new IllegalStateException();
       }
@@ -129,7 +129,7 @@ public class LNumberType extends BObjectType<LNumber> {
         case 4:
           return new LFloatNumber((float) x, mode);
         case 8:
-          return new LDoubleNumber(x, mode);
+          return LNumber.doubleNumber(x, mode);
         default:
           throw new IllegalStateException();
       }
@@ -140,9 +140,9 @@ public class LNumberType extends BObjectType<LNumber> {
     if(integral) {
       switch(size) {
         case 4:
-          return new LIntNumber(x.intValueExact());
+          return LNumber.intNumber(x.intValueExact());
         case 8:
-          return new LLongNumber(x.longValueExact());
+          return LNumber.longNumber(x.longValueExact());
         default:
           throw new IllegalStateException();
       }
@@ -151,7 +151,7 @@ public class LNumberType extends BObjectType<LNumber> {
         case 4:
           return new LFloatNumber(x.floatValue(), mode);
         case 8:
-          return new LDoubleNumber(x.doubleValue(), mode);
+          return LNumber.doubleNumber(x.doubleValue(), mode);
         default:
           throw new IllegalStateException();
       }
@@ -28,6 +28,20 @@ public abstract class LStringType extends BObjectType<LString> {
 
   };
   
+  /**
+   * With --intern, strings are shared across all the chunks of a run.
+   */
+  protected static String intern(String s, BHeader header) {
+    return header.config != null && header.config.intern ? s.intern() : s;
+  }
+  
+  protected static void advance(ByteBuffer buffer, int length) {
+    if(length < 0 || length > buffer.remaining()) {
+      throw new TruncatedChunkException("String length " + length + " exceeds the rest of the chunk");
+    }
+    buffer.position(buffer.position() + length);
+  }
+  
 }
 
 class LStringType50 extends LStringType {
@@ -50,7 +64,7 @@ class LStringType50 extends LStringType {
     } else {
       char last = b.charAt(b.length() - 1);
       b.delete(b.length() - 1, b.length());
-      String s = b.toString();
+      String s = intern(b.toString(), header);
       if(header.debug) {
         System.out.println("-- parsed <string> \"" + s + "\"");
       }
@@ -58,13 +72,18 @@ class LStringType50 extends LStringType {
     }
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    advance(buffer, header.sizeT.parse(buffer, header).asInt());
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LString string) throws IOException {
     int len = string.value.length();
     if(string == LString.NULL) {
-      header.sizeT.write(out, header, header.sizeT.create(0));
+      header.sizeT.write(out, header, 0);
     } else {
-      header.sizeT.write(out, header, header.sizeT.create(len + 1));
+      header.sizeT.write(out, header, len + 1);
       for(int i = 0; i < len; i++) {
         out.write(string.value.charAt(i));
       }
@@ -94,13 +113,28 @@ class LStringTypeMiWifi extends LStringType50 {
     } else {
       char last = b.charAt(b.length() - 1);
       b.delete(b.length() - 1, b.length());
-      String s = b.toString();
+      String s = intern(b.toString(), header);
       if(header.debug) {
         System.out.println("-- parsed <string> \"" + s + "\"");
       }
       return new LString(s, last);
     }
   }
+  
+  @Override
+  public void write(OutputStream out, BHeader header, LString string) throws IOException {
+    if(string == LString.NULL) {
+      header.sizeT.write(out, header, 0);
+    } else {
+      int len = string.value.length();
+      int key = 0x000000ff & ((len + 1) * 13 + 55);
+      header.sizeT.write(out, header, len + 1);
+      for(int i = 0; i < len; i++) {
+        out.write(string.value.charAt(i) ^ key);
+      }
+      out.write(key);
+    }
+  }
 }
 
 class LStringType53 extends LStringType {
@@ -132,13 +166,24 @@ class LStringType53 extends LStringType {
       }
       
     });
-    String s = b.toString();
+    String s = intern(b.toString(), header);
     if(header.debug) {
       System.out.println("-- parsed <string> \"" + s + "\"");
     }
     return new LString(s);
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    int size = 0xFF & buffer.get();
+    if(size == 0) {
+      return;
+    } else if(size == 0xFF) {
+      size = header.sizeT.parse(buffer, header).asInt();
+    }
+    advance(buffer, size - 1);
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LString string) throws IOException {
     if(string == LString.NULL) {
@@ -149,7 +194,7 @@ class LStringType53 extends LStringType {
         out.write((byte)len);
       } else {
         out.write(0xFF);
-        header.sizeT.write(out, header, header.sizeT.create(len));
+        header.sizeT.write(out, header, len);
       }
       for(int i = 0; i < string.value.length(); i++) {
         out.write(string.value.charAt(i));
@@ -182,19 +227,27 @@ class LStringType54 extends LStringType {
       }
       
     });
-    String s = b.toString();
+    String s = intern(b.toString(), header);
     if(header.debug) {
       System.out.println("-- parsed <string> \"" + s + "\"");
     }
     return new LString(s);
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    int size = header.sizeT.parse(buffer, header).asInt();
+    if(size != 0) {
+      advance(buffer, size - 1);
+    }
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LString string) throws IOException {
     if(string == LString.NULL) {
-      header.sizeT.write(out, header, header.sizeT.create(0));
+      header.sizeT.write(out, header, 0);
     } else {
-      header.sizeT.write(out, header, header.sizeT.create(string.value.length() + 1));
+      header.sizeT.write(out, header, string.value.length() + 1);
       for(int i = 0; i < string.value.length(); i++) {
         out.write(string.value.charAt(i));
       }
@@ -0,0 +1,186 @@
+package unluac.parse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import unluac.Version;
+import unluac.assemble.Tokenizer;
+import unluac.decompile.Op;
+import unluac.decompile.OpcodeMap;
+import unluac.decompile.Type;
+import unluac.decompile.TypeMap;
+import unluac.util.HashUtils;
+
+/**
+ * A user opcode or type map (the --opmap and --typemap files). Profiles are
+ * looked up by the name they were loaded under, and reloaded when the
+ * file's size or modification time changes; they are shared by content
+ * hash, so every chunk, and every name for the same contents, reuses one
+ * set of compiled tables. Opcode names depend on the version, so an opcode
+ * map is compiled the first time the profile is used with each version. A
+ * map that doesn't compile fails the same way every time it's asked for.
+ */
+public class MapProfile {
+
+  private static class Entry {
+
+    final long length;
+    final long modified;
+    final MapProfile profile;
+
+    Entry(long length, long modified, MapProfile profile) {
+      this.length = length;
+      this.modified = modified;
+      this.profile = profile;
+    }
+
+  }
+
+  private static final ConcurrentMap<String, Entry> names = new ConcurrentHashMap<String, Entry>();
+  private static final ConcurrentMap<String, MapProfile> hashes = new ConcurrentHashMap<String, MapProfile>();
+
+  /**
+   * Returns the profile loaded under the given file name, loading it the
+   * first time and whenever the file has changed since.
+   */
+  public static MapProfile get(String name) throws IOException {
+    File file = new File(name);
+    long length = file.length();
+    long modified = file.lastModified();
+    Entry entry = names.get(name);
+    if(entry == null || entry.length != length || entry.modified != modified) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      InputStream in = new FileInputStream(file);
+      try {
+        byte[] buffer = new byte[4096];
+        int n;
+        while((n = in.read(buffer)) != -1) {
+          content.write(buffer, 0, n);
+        }
+      } finally {
+        in.close();
+      }
+      entry = new Entry(length, modified, load(content.toByteArray()));
+      names.put(name, entry);
+    }
+    return entry.profile;
+  }
+
+  /**
+   * The profile of the given contents, sharing that of any identical
+   * contents already loaded.
+   */
+  private static MapProfile load(byte[] content) {
+    String hash = HashUtils.sha256Hex(content);
+    MapProfile profile = hashes.get(hash);
+    if(profile == null) {
+      MapProfile existing = hashes.putIfAbsent(hash, profile = new MapProfile(hash, content));
+      if(existing != null) {
+        profile = existing;
+      }
+    }
+    return profile;
+  }
+
+  public final String hash;
+
+  private final byte[] content;
+  private TypeMap typemap;
+  private String typemapError;
+  private final Map<Version, OpcodeMap> opmaps = new HashMap<Version, OpcodeMap>();
+  private final Map<Version, String> opmapErrors = new HashMap<Version, String>();
+
+  private MapProfile(String hash, byte[] content) {
+    this.hash = hash;
+    this.content = content;
+  }
+
+  public synchronized TypeMap getTypeMap() throws IOException {
+    if(typemap == null && typemapError == null) {
+      try {
+        typemap = parseTypeMap();
+      } catch(RuntimeException e) {
+        typemapError = e.getMessage();
+      }
+    }
+    if(typemapError != null) throw new RuntimeException(typemapError);
+    return typemap;
+  }
+
+  public synchronized OpcodeMap getOpcodeMap(Version version) throws IOException {
+    OpcodeMap opmap = opmaps.get(version);
+    String error = opmapErrors.get(version);
+    if(opmap == null && error == null) {
+      try {
+        opmap = parseOpcodeMap(version);
+        opmaps.put(version, opmap);
+      } catch(RuntimeException e) {
+        error = e.getMessage();
+        opmapErrors.put(version, error);
+      }
+    }
+    if(error != null) throw new RuntimeException(error);
+    return opmap;
+  }
+
+  private TypeMap parseTypeMap() throws IOException {
+    Tokenizer t = new Tokenizer(new ByteArrayInputStream(content));
+    String tok;
+    Map<Integer, Type> usertypemap = new HashMap<Integer, Type>();
+    while((tok = t.next()) != null) {
+      if(tok.equals(".type")) {
+        tok = t.next();
+        if(tok == null) throw new RuntimeException("Unexpected end of typemap file.");
+        int opcode;
+        try {
+          opcode = Integer.parseInt(tok);
+        } catch(NumberFormatException e) {
+          throw new RuntimeException("Excepted number in typemap file, got \"" + tok + "\".");
+        }
+        tok = t.next();
+        if(tok == null) throw new RuntimeException("Unexpected end of typemap file.");
+        Type type = Type.get(tok);
+        if(type == null) throw new RuntimeException("Unknown type name \"" + tok + "\" in typemap file.");
+        usertypemap.put(opcode, type);
+      } else {
+        throw new RuntimeException("Unexpected token \"" + tok + "\" + in typemap file.");
+      }
+    }
+    return new TypeMap(usertypemap);
+  }
+
+  private OpcodeMap parseOpcodeMap(Version version) throws IOException {
+    Tokenizer t = new Tokenizer(new ByteArrayInputStream(content));
+    String tok;
+    Map<Integer, Op> useropmap = new HashMap<Integer, Op>();
+    while((tok = t.next()) != null) {
+      if(tok.equals(".op")) {
+        tok = t.next();
+        if(tok == null) throw new RuntimeException("Unexpected end of opmap file.");
+        int opcode;
+        try {
+          opcode = Integer.parseInt(tok);
+        } catch(NumberFormatException e) {
+          throw new RuntimeException("Excepted number in opmap file, got \"" + tok + "\".");
+        }
+        tok = t.next();
+        if(tok == null) throw new RuntimeException("Unexpected end of opmap file.");
+        Op op = version.getOpcodeMap().get(tok);
+        if(op == null) throw new RuntimeException("Unknown op name \"" + tok + "\" in opmap file.");
+        useropmap.put(opcode, op);
+      } else {
+        throw new RuntimeException("Unexpected token \"" + tok + "\" + in opmap file.");
+      }
+    }
+    return new OpcodeMap(useropmap);
+  }
+
+}
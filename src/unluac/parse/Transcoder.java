@@ -0,0 +1,141 @@
+package unluac.parse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import unluac.Configuration;
+
+/**
+ * Rewrites a parsed chunk directly in its binary form, applying the
+ * transformations requested by the configuration (stripping debug
+ * information, changing endianness, or changing the width of ints and
+ * size_ts) without going through the disassembler.
+ */
+public class Transcoder {
+
+  private final BHeader source;
+  private final Configuration config;
+
+  public Transcoder(BHeader source, Configuration config) {
+    this.source = source;
+    this.config = config;
+  }
+
+  public void transcode(OutputStream out) throws IOException, TranscoderException {
+    LHeader lheader = transcode_header(source.lheader);
+    BHeader header = new BHeader(source.version, lheader, source.typemap);
+    LFunction main = transcode_function(header, source.main);
+    header = new BHeader(source.version, lheader, source.typemap, main);
+    main.setLevel(1);
+    header.write(out);
+  }
+
+  private LHeader transcode_header(LHeader lheader) throws TranscoderException {
+    LHeader.LEndianness endianness = lheader.endianness;
+    if(config.endianness != null) {
+      endianness = config.endianness;
+    }
+    BIntegerType integer = lheader.integer;
+    BIntegerType sizeT = lheader.sizeT;
+    if(config.int_size >= 0 || config.size_t_size >= 0) {
+      if(source.version.getLHeaderType() == LHeaderType.TYPE54) {
+        throw new TranscoderException("Lua 5.4 chunks use variable-length integers; their width can't be changed.");
+      }
+      if(config.int_size >= 0) {
+        check_size(config.int_size);
+        integer = BIntegerType.create50Type(true, config.int_size, source.version.allownegativeint.get());
+      }
+      if(config.size_t_size >= 0) {
+        check_size(config.size_t_size);
+        sizeT = BIntegerType.create50Type(false, config.size_t_size, false);
+      }
+      check_function(source.main, integer.getSize(), sizeT.getSize());
+    }
+    return new LHeader(lheader.format, endianness, integer, sizeT, lheader.bool, lheader.number, lheader.linteger, lheader.lfloat, lheader.string, lheader.constant, lheader.abslineinfo, lheader.local, lheader.upvalue, lheader.function, lheader.extractor);
+  }
+
+  private LFunction transcode_function(BHeader header, LFunction function) {
+    LFunction[] functions = new LFunction[function.functions.length];
+    for(int i = 0; i < functions.length; i++) {
+      functions[i] = transcode_function(header, function.functions[i]);
+    }
+    LString name = function.name;
+    LLineInfo lineinfo = function.lineinfo;
+    LLocal[] locals = function.locals;
+    LUpvalue[] upvalues = function.upvalues;
+    if(config.strip) {
+      name = LString.NULL;
+      lineinfo = new LLineInfo(new int[0], lineinfo.getAbsLineInfo() != null ? new LAbsLineInfo[0] : null);
+      locals = new LLocal[0];
+      upvalues = new LUpvalue[function.upvalues.length];
+      for(int i = 0; i < upvalues.length; i++) {
+        LUpvalue original = function.upvalues[i];
+        LUpvalue upvalue = new LUpvalue();
+        upvalue.instack = original.instack;
+        upvalue.idx = original.idx;
+        upvalue.kind = original.kind;
+        upvalues[i] = upvalue;
+      }
+    }
+    LFunction lfunc = new LFunction(header, name, function.linedefined, function.lastlinedefined, function.code, lineinfo, locals, function.constants, upvalues, functions, function.maximumStackSize, function.numUpvalues, function.numParams, function.vararg);
+    for(LFunction child : functions) {
+      child.parent = lfunc;
+    }
+    lfunc.stripped = function.stripped || config.strip;
+    return lfunc;
+  }
+
+  private static void check_size(int size) throws TranscoderException {
+    if(size != 1 && size != 2 && size != 4 && size != 8) {
+      throw new TranscoderException("Unsupported integer size: " + size);
+    }
+  }
+
+  private void check_function(LFunction function, int intSize, int sizeTSize) throws TranscoderException {
+    check_int(function.code.length, intSize);
+    check_int(function.constants.length, intSize);
+    check_int(function.functions.length, intSize);
+    check_int(function.linedefined, intSize);
+    check_int(function.lastlinedefined, intSize);
+    if(!config.strip) {
+      check_int(function.lineinfo.getLength(), intSize);
+      for(int line : function.lineinfo.getLines()) {
+        check_int(line, intSize);
+      }
+      check_int(function.locals.length, intSize);
+      for(LLocal local : function.locals) {
+        check_int(local.start, intSize);
+        check_int(local.end, intSize);
+        check_string(local.name, sizeTSize);
+      }
+      check_string(function.name, sizeTSize);
+      for(LUpvalue upvalue : function.upvalues) {
+        check_string(upvalue.bname, sizeTSize);
+      }
+    }
+    for(LObject constant : function.constants) {
+      if(constant instanceof LString) {
+        check_string((LString) constant, sizeTSize);
+      }
+    }
+    for(LFunction child : function.functions) {
+      check_function(child, intSize, sizeTSize);
+    }
+  }
+
+  private static void check_int(long value, int size) throws TranscoderException {
+    if(size < 8 && (value >= (1L << (8 * size - 1)) || value < -(1L << (8 * size - 1)))) {
+      throw new TranscoderException("The value " + value + " doesn't fit in an integer of size " + size);
+    }
+  }
+
+  private static void check_string(LString string, int size) throws TranscoderException {
+    if(string != null && string != LString.NULL) {
+      long length = string.value.length() + 1;
+      if(size < 8 && length >= (1L << (8 * size))) {
+        throw new TranscoderException("A string of length " + length + " doesn't fit in a size_t of size " + size);
+      }
+    }
+  }
+
+}
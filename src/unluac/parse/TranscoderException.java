@@ -0,0 +1,10 @@
+package unluac.parse;
+
+@SuppressWarnings("serial")
+public class TranscoderException extends Exception {
+  
+  TranscoderException(String msg) {
+    super(msg);
+  }
+  
+}
@@ -0,0 +1,23 @@
+package unluac.parse;
+
+import java.nio.BufferUnderflowException;
+
+/**
+ * A length that runs past the end of the data. It's a buffer underflow, so
+ * that a reader holding only part of a stream knows to retry with more.
+ */
+@SuppressWarnings("serial")
+class TruncatedChunkException extends BufferUnderflowException {
+
+  private final String message;
+
+  TruncatedChunkException(String message) {
+    this.message = message;
+  }
+
+  @Override
+  public String getMessage() {
+    return message;
+  }
+
+}
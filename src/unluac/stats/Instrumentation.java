@@ -0,0 +1,211 @@
+package unluac.stats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import unluac.parse.LFunction;
+import unluac.util.StringUtils;
+
+/**
+ * Records time, allocation and invocation counts for each stage, both per
+ * function and in aggregate, and forwards completed stages to listeners.
+ * Stages nest (a child function is decompiled while its parent prints), so
+ * each stage is charged only for the time not spent in nested stages.
+ *
+ * An instance is meant to be used by one thread at a time.
+ */
+public class Instrumentation {
+
+  /**
+   * The shared disabled instance; begin and end return immediately.
+   */
+  public static final Instrumentation NONE = new Instrumentation(false);
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  private static final int TIME = 0;
+  private static final int ALLOCATED = 1;
+  private static final int COUNT = 2;
+  private static final int ITEMS = 3;
+
+  private static class Frame {
+    Stage stage;
+    LFunction function;
+    long startTime;
+    long startAllocated;
+    long nestedTime;
+    long nestedAllocated;
+  }
+
+  private final boolean enabled;
+  private final List<StageListener> listeners = new ArrayList<StageListener>();
+  private final long[][] totals = new long[Stage.values().length][4];
+  private final Map<LFunction, long[][]> functions = new IdentityHashMap<LFunction, long[][]>();
+  private final List<Frame> stack = new ArrayList<Frame>();
+  private int depth = 0;
+
+  public Instrumentation() {
+    this(true);
+  }
+
+  private Instrumentation(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void addListener(StageListener listener) {
+    if(!enabled) throw new IllegalStateException("Can't listen to the disabled instrumentation");
+    listeners.add(listener);
+  }
+
+  public void begin(Stage stage, LFunction function) {
+    if(!enabled) return;
+    if(depth == stack.size()) {
+      stack.add(new Frame());
+    }
+    Frame frame = stack.get(depth++);
+    frame.stage = stage;
+    frame.function = function;
+    frame.nestedTime = 0;
+    frame.nestedAllocated = 0;
+    for(StageListener listener : listeners) {
+      listener.stageStarted(stage, function);
+    }
+    frame.startAllocated = allocated();
+    frame.startTime = System.nanoTime();
+  }
+
+  public void end(Stage stage) {
+    end(stage, 0);
+  }
+
+  public void end(Stage stage, long items) {
+    if(!enabled) return;
+    long now = System.nanoTime();
+    long allocated = allocated();
+    // frames left open by an exception are discarded
+    while(depth > 0 && stack.get(depth - 1).stage != stage) {
+      depth--;
+    }
+    if(depth == 0) {
+      throw new IllegalStateException("Stage " + stage.name + " was never started");
+    }
+    Frame frame = stack.get(--depth);
+    long totalTime = now - frame.startTime;
+    long totalAllocated = allocated - frame.startAllocated;
+    long time = totalTime - frame.nestedTime;
+    long own = totalAllocated - frame.nestedAllocated;
+    if(depth > 0) {
+      Frame parent = stack.get(depth - 1);
+      parent.nestedTime += totalTime;
+      parent.nestedAllocated += totalAllocated;
+    }
+    add(totals[stage.ordinal()], time, own, items);
+    if(frame.function != null) {
+      long[][] stats = functions.get(frame.function);
+      if(stats == null) {
+        stats = new long[Stage.values().length][4];
+        functions.put(frame.function, stats);
+      }
+      add(stats[stage.ordinal()], time, own, items);
+    }
+    for(StageListener listener : listeners) {
+      listener.stageCompleted(stage, frame.function, time, own, items);
+    }
+    frame.function = null;
+  }
+
+  public long getTime(Stage stage) {
+    return totals[stage.ordinal()][TIME];
+  }
+
+  public long getAllocated(Stage stage) {
+    return totals[stage.ordinal()][ALLOCATED];
+  }
+
+  public int getCount(Stage stage) {
+    return (int) totals[stage.ordinal()][COUNT];
+  }
+
+  public long getItems(Stage stage) {
+    return totals[stage.ordinal()][ITEMS];
+  }
+
+  /**
+   * Renders the aggregate stats and, in tree order starting from main, the
+   * stats of every function that was instrumented.
+   */
+  public String toJSON(String file, LFunction main) {
+    StringBuilder b = new StringBuilder();
+    b.append("{\"file\":").append(StringUtils.toJSONString(file));
+    b.append(",\"stages\":");
+    stages(b, totals);
+    b.append(",\"functions\":[");
+    if(main != null) {
+      functions(b, main, "main", true);
+    }
+    b.append("]}");
+    return b.toString();
+  }
+
+  private boolean functions(StringBuilder b, LFunction function, String path, boolean first) {
+    long[][] stats = functions.get(function);
+    if(stats != null) {
+      if(!first) b.append(',');
+      first = false;
+      b.append("{\"function\":").append(StringUtils.toJSONString(path));
+      b.append(",\"instructions\":").append(function.code.length);
+      b.append(",\"stages\":");
+      stages(b, stats);
+      b.append('}');
+    }
+    for(int i = 0; i < function.functions.length; i++) {
+      first = functions(b, function.functions[i], path + "/f" + i, first);
+    }
+    return first;
+  }
+
+  private static void stages(StringBuilder b, long[][] stats) {
+    b.append('{');
+    boolean first = true;
+    for(Stage stage : Stage.values()) {
+      long[] s = stats[stage.ordinal()];
+      if(s[COUNT] > 0) {
+        if(!first) b.append(',');
+        first = false;
+        b.append('"').append(stage.name).append("\":{");
+        b.append("\"time\":").append(s[TIME]);
+        b.append(",\"allocated\":").append(s[ALLOCATED]);
+        b.append(",\"count\":").append(s[COUNT]);
+        if(s[ITEMS] > 0) {
+          b.append(",\"items\":").append(s[ITEMS]);
+        }
+        b.append('}');
+      }
+    }
+    b.append('}');
+  }
+
+  private static void add(long[] stats, long time, long allocated, long items) {
+    stats[TIME] += time;
+    stats[ALLOCATED] += allocated;
+    stats[COUNT]++;
+    stats[ITEMS] += items;
+  }
+
+  private static long allocated() {
+    if(threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    } else {
+      return 0;
+    }
+  }
+
+}
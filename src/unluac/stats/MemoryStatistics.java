@@ -0,0 +1,230 @@
+package unluac.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import unluac.Configuration;
+import unluac.decompile.CodeExtract;
+import unluac.decompile.Op;
+import unluac.parse.LAbsLineInfo;
+import unluac.parse.LFunction;
+import unluac.parse.LLineInfo;
+import unluac.parse.LLocal;
+import unluac.parse.LObject;
+import unluac.parse.LString;
+import unluac.parse.LUpvalue;
+import unluac.util.StringUtils;
+
+/**
+ * Estimates the heap needed to decompile a chunk, from the prototypes alone.
+ * Each function's retained memory is what its parsed prototype keeps alive
+ * for the whole run; its transient memory is what the analysis allocates
+ * while it is decompiled (the Registers matrices, VariableFinder states,
+ * control flow arrays and blocks, and expressions). A child is decompiled
+ * while its parent prints, so the parent's transient memory is still live
+ * then: a function's peak is the retained total of the chunk plus the
+ * transient memory of the function and all its ancestors.
+ *
+ * Sizes assume a 64-bit JVM with compressed references, and the block and
+ * expression counts are rough (per jump and per instruction), so the
+ * figures are for comparing inputs and sizing heaps, not exact.
+ */
+public class MemoryStatistics {
+
+  private static final int HEADER = 12;
+  private static final int REFERENCE = 4;
+
+  /* Approximate shallow sizes of the analysis objects. */
+  private static final int REGISTER_STATE = 32;
+  private static final int BRANCH = 40;
+  private static final int BLOCK = 48;
+  private static final int EXPRESSION = 40;
+
+  public static class FunctionMemory {
+
+    public final LFunction function;
+    public final String path;
+    public final FunctionMemory parent;
+
+    public long code;
+    public long constants;
+    public long strings;
+    public long locals;
+    public long lines;
+    public long abslineinfo;
+
+    public long registers;
+    public long variables;
+    public long blocks;
+    public long expressions;
+
+    public long peak;
+
+    FunctionMemory(LFunction function, String path, FunctionMemory parent) {
+      this.function = function;
+      this.path = path;
+      this.parent = parent;
+    }
+
+    public long getRetained() {
+      return code + constants + strings + locals + lines + abslineinfo;
+    }
+
+    public long getTransient() {
+      return registers + variables + blocks + expressions;
+    }
+  }
+
+  public final String version;
+  public final long retained;
+  public final long peak;
+  /* Ordered by decreasing peak. */
+  public final List<FunctionMemory> functions = new ArrayList<FunctionMemory>();
+
+  public MemoryStatistics(LFunction main) {
+    version = main.header.version.getName();
+    gather(main, "main", null);
+    long retained = 0;
+    for(FunctionMemory memory : functions) {
+      retained += memory.getRetained();
+    }
+    long peak = retained;
+    for(FunctionMemory memory : functions) {
+      memory.peak = retained;
+      for(FunctionMemory m = memory; m != null; m = m.parent) {
+        memory.peak += m.getTransient();
+      }
+      peak = Math.max(peak, memory.peak);
+    }
+    this.retained = retained;
+    this.peak = peak;
+    Collections.sort(functions, new Comparator<FunctionMemory>() {
+
+      @Override
+      public int compare(FunctionMemory a, FunctionMemory b) {
+        return Long.compare(b.peak, a.peak);
+      }
+
+    });
+  }
+
+  private void gather(LFunction function, String path, FunctionMemory parent) {
+    FunctionMemory memory = new FunctionMemory(function, path, parent);
+    functions.add(memory);
+    int length = function.code.length;
+    int registers = function.maximumStackSize;
+
+    memory.code = array(length, 4);
+    memory.constants = array(function.constants.length, REFERENCE);
+    for(LObject constant : function.constants) {
+      if(constant instanceof LString) {
+        memory.strings += string((LString) constant);
+      } else {
+        // nil and booleans are shared, but numbers aren't
+        memory.constants += object(REFERENCE + 8);
+      }
+    }
+    memory.strings += string(function.name);
+    memory.locals = array(function.locals.length, REFERENCE) + function.locals.length * object(REFERENCE + 8 + 1);
+    for(LLocal local : function.locals) {
+      memory.strings += string(local.name);
+    }
+    for(LUpvalue upvalue : function.upvalues) {
+      memory.strings += string(upvalue.bname);
+    }
+    LLineInfo lineinfo = function.lineinfo;
+    if(lineinfo.isEncoded()) {
+      // kept raw, as decompiling never decodes it
+      memory.lines = array(lineinfo.getLength(), 1);
+      memory.abslineinfo = array(lineinfo.getEncodedAbsSize(), 1);
+    } else {
+      memory.lines = array(lineinfo.getLength(), 4);
+      LAbsLineInfo[] abslineinfo = lineinfo.getAbsLineInfo();
+      if(abslineinfo != null) {
+        memory.abslineinfo = array(abslineinfo.length, REFERENCE) + abslineinfo.length * object(8);
+      }
+    }
+
+    // declarations, values and updates for each register at each line
+    memory.registers = 3 * (array(registers, REFERENCE) + registers * array(length + 1, 4)) + array(length + 1, 1);
+    if(function.stripped && function.header.config.variable == Configuration.VariableMode.FINDER) {
+      memory.variables = array(length, REFERENCE) + length * (array(registers, REFERENCE) + registers * (long) REGISTER_STATE) + array(length, 1);
+    }
+    int jumps = jumps(function);
+    // per line flags, targets and branch tables, then the branches and blocks
+    memory.blocks = 4 * array(length + 1, 1) + array(length + 1, 4) + 2 * array(length + 1, REFERENCE);
+    memory.blocks += (long) jumps * BRANCH + (2L * jumps + 1) * BLOCK;
+    memory.expressions = (long) length * EXPRESSION;
+
+    for(int i = 0; i < function.functions.length; i++) {
+      gather(function.functions[i], path + "/f" + i, memory);
+    }
+  }
+
+  private static int jumps(LFunction function) {
+    CodeExtract ex = function.header.extractor;
+    int jumps = 0;
+    for(int codepoint : function.code) {
+      Op op = function.header.opmap.get(ex.op.extract(codepoint));
+      if(op != null && op.hasJump()) {
+        jumps++;
+      }
+    }
+    return jumps;
+  }
+
+  private static long string(LString string) {
+    if(string == null || string == LString.NULL) return 0;
+    // the LString, its String and the String's Latin-1 bytes
+    return object(REFERENCE + 2 + 1) + object(REFERENCE + 4 + 1 + 1) + array(string.value.length(), 1);
+  }
+
+  private static long object(int fields) {
+    return align(HEADER + fields);
+  }
+
+  private static long array(int length, int element) {
+    return align(HEADER + 4 + (long) length * element);
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  public String toJSON(String file) {
+    StringBuilder b = new StringBuilder();
+    b.append("{\"file\":").append(StringUtils.toJSONString(file));
+    b.append(",\"version\":").append(StringUtils.toJSONString(version));
+    b.append(",\"retained\":").append(retained);
+    b.append(",\"peak\":").append(peak);
+    b.append(",\"functions\":[");
+    for(int i = 0; i < functions.size(); i++) {
+      FunctionMemory memory = functions.get(i);
+      if(i > 0) b.append(',');
+      b.append("{\"function\":").append(StringUtils.toJSONString(memory.path));
+      b.append(",\"instructions\":").append(memory.function.code.length);
+      b.append(",\"registers\":").append(memory.function.maximumStackSize);
+      b.append(",\"peak\":").append(memory.peak);
+      b.append(",\"retained\":{");
+      b.append("\"code\":").append(memory.code);
+      b.append(",\"constants\":").append(memory.constants);
+      b.append(",\"strings\":").append(memory.strings);
+      b.append(",\"locals\":").append(memory.locals);
+      b.append(",\"lines\":").append(memory.lines);
+      b.append(",\"abslineinfo\":").append(memory.abslineinfo);
+      b.append(",\"total\":").append(memory.getRetained());
+      b.append("},\"transient\":{");
+      b.append("\"registers\":").append(memory.registers);
+      b.append(",\"variables\":").append(memory.variables);
+      b.append(",\"blocks\":").append(memory.blocks);
+      b.append(",\"expressions\":").append(memory.expressions);
+      b.append(",\"total\":").append(memory.getTransient());
+      b.append("}}");
+    }
+    b.append("]}");
+    return b.toString();
+  }
+
+}
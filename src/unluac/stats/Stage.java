@@ -0,0 +1,40 @@
+package unluac.stats;
+
+/**
+ * The instrumented stages of a run, in pipeline order. PARSE and DECOMPILE
+ * enclose the finer stages of a chunk parse and of one function's
+ * decompile; they also count their size in items (bytes parsed, blocks
+ * found).
+ */
+public enum Stage {
+  PARSE("parse"),
+  PARSE_HEADER("parse.header"),
+  PARSE_PROTOTYPES("parse.prototypes"),
+  PARSE_CONSTANTS("parse.constants"),
+  PARSE_DEBUG("parse.debug"),
+  DECOMPILE("decompile"),
+  VARIABLES("variables"),
+  FIND_REVERSE_TARGETS("find_reverse_targets"),
+  FIND_BRANCHES("find_branches"),
+  COMBINE_BRANCHES("combine_branches"),
+  RESOLVE_LINES("resolve_lines"),
+  INITIALIZE_BLOCKS("initialize_blocks"),
+  FIND_FIXED_BLOCKS("find_fixed_blocks"),
+  FIND_WHILE_LOOPS("find_while_loops"),
+  FIND_REPEAT_LOOPS("find_repeat_loops"),
+  FIND_IF_BREAK("find_if_break"),
+  FIND_SET_BLOCKS("find_set_blocks"),
+  FIND_PSEUDO_GOTO_STATEMENTS("find_pseudo_goto_statements"),
+  FIND_DO_BLOCKS("find_do_blocks"),
+  PROCESS_SEQUENCE("process_sequence"),
+  RESOLVE("resolve"),
+  PRINT("print"),
+  FLUSH("flush");
+  
+  public final String name;
+  
+  private Stage(String name) {
+    this.name = name;
+  }
+  
+}
@@ -0,0 +1,17 @@
+package unluac.stats;
+
+import unluac.parse.LFunction;
+
+public interface StageListener {
+
+  public void stageStarted(Stage stage, LFunction function);
+  
+  /**
+   * Called when a stage finishes. The time (ns) and allocation (bytes)
+   * exclude any stages nested inside it. The function is null for stages
+   * that aren't tied to a single function, such as parsing. Items is the
+   * size of the work for stages that count one, otherwise zero.
+   */
+  public void stageCompleted(Stage stage, LFunction function, long time, long allocated, long items);
+  
+}
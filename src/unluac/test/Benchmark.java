@@ -0,0 +1,447 @@
+package unluac.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import unluac.Configuration;
+import unluac.assemble.AssemblerException;
+import unluac.decompile.ControlFlowHandler;
+import unluac.decompile.Decompiler;
+import unluac.decompile.Disassembler;
+import unluac.decompile.Function;
+import unluac.decompile.Output;
+import unluac.decompile.OutputProvider;
+import unluac.decompile.Registers;
+import unluac.parse.BHeader;
+import unluac.parse.LFunction;
+
+/**
+ * Times the parse, analysis and printing phases separately over a set of
+ * fixtures. The fixtures are the corpus of assembler listings in
+ * test/bench/, assembler listings (*.txt) or chunks (*.luac) from the
+ * given directories, and synthetic large functions. Listings are assembled
+ * in memory with the project's Assembler, so no luac binary is needed.
+ * -nocorpus leaves out the test/bench corpus.
+ *
+ * The test/bench listings are the test/src files compiled for 5.4. With
+ * -luac, the benchmark compiles test/src (or the -corpus directory) with
+ * the luac of the given spec instead, and -dump writes the compiled
+ * corpus's listings to a directory, which is how test/bench is refreshed.
+ *
+ * Totals per phase (time, allocated bytes and peak heap) can be recorded
+ * as a JSON baseline with -record, and a later run checked against it with
+ * -check, which fails when any of them grows by more than the threshold
+ * factor (1.5 by default).
+ *
+ * usage: Benchmark [-warmup n] [-iterations n] [-record file] [-check file]
+ *                  [-threshold x] [-nocorpus] [-luac] [-spec version]
+ *                  [-corpus dir] [-dump dir] [dir...]
+ */
+public class Benchmark {
+
+  public static enum Phase {
+    PARSE("parse"),
+    FLOW("flow"),
+    DECOMPILE("decompile"),
+    PRINT("print"),
+    DISASSEMBLE("disassemble"),
+    ASSEMBLE("assemble");
+
+    public final String name;
+
+    private Phase(String name) {
+      this.name = name;
+    }
+  }
+
+  public static class Fixture {
+
+    public final String name;
+    public final byte[] chunk;
+    public final String listing;
+
+    public Fixture(String name, byte[] chunk, String listing) {
+      this.name = name;
+      this.chunk = chunk;
+      this.listing = listing;
+    }
+  }
+
+  public static class Sample {
+
+    public long time;
+    public long allocated;
+
+    private long startTime;
+    private long startAllocated;
+
+    void start() {
+      startAllocated = allocated();
+      startTime = System.nanoTime();
+    }
+
+    void stop() {
+      time += System.nanoTime() - startTime;
+      allocated += allocated() - startAllocated;
+    }
+  }
+
+  /**
+   * Per-phase totals over all fixtures: average time (ns) and allocation
+   * (bytes) per iteration, and the peak heap seen while the phase ran.
+   */
+  public static class Result {
+
+    public final long[] time = new long[Phase.values().length];
+    public final long[] allocated = new long[Phase.values().length];
+    public final long[] peak = new long[Phase.values().length];
+    public final boolean[] present = new boolean[Phase.values().length];
+
+    public String toJSON() {
+      StringBuilder b = new StringBuilder();
+      b.append("{\"phases\":{");
+      for(Phase phase : Phase.values()) {
+        int i = phase.ordinal();
+        if(i > 0) b.append(',');
+        b.append('\n').append("  \"").append(phase.name).append("\":{");
+        b.append("\"time\":").append(time[i]);
+        b.append(",\"allocated\":").append(allocated[i]);
+        b.append(",\"peak\":").append(peak[i]);
+        b.append('}');
+      }
+      b.append("\n}}\n");
+      return b.toString();
+    }
+
+    public static Result fromJSON(String json) {
+      Result result = new Result();
+      Matcher m = Pattern.compile("\"(\\w+)\":\\{\"time\":(-?\\d+),\"allocated\":(-?\\d+),\"peak\":(-?\\d+)\\}").matcher(json);
+      while(m.find()) {
+        for(Phase phase : Phase.values()) {
+          if(phase.name.equals(m.group(1))) {
+            result.time[phase.ordinal()] = Long.parseLong(m.group(2));
+            result.allocated[phase.ordinal()] = Long.parseLong(m.group(3));
+            result.peak[phase.ordinal()] = Long.parseLong(m.group(4));
+            result.present[phase.ordinal()] = true;
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /* Keeps results reachable so the timed work can't be optimized away. */
+  private static volatile Object sink;
+
+  private static final OutputProvider discard = new OutputProvider() {
+
+    @Override
+    public void print(String s) {}
+
+    @Override
+    public void print(byte b) {}
+
+    @Override
+    public void println() {}
+
+    @Override
+    public void finish() {}
+
+  };
+
+  private static final File BENCH = new File("test", "bench");
+
+  public static void main(String[] args) throws IOException, AssemblerException {
+    int warmup = 5;
+    int iterations = 10;
+    String record = null;
+    String check = null;
+    double threshold = 1.5;
+    boolean nocorpus = false;
+    boolean luac = false;
+    LuaSpec spec = new LuaSpec(0x54);
+    File corpus = new File("test", "src");
+    File dump = null;
+    List<File> dirs = new ArrayList<File>();
+    for(int i = 0; i < args.length; i++) {
+      if(args[i].equals("-warmup") && i + 1 < args.length) {
+        warmup = Integer.parseInt(args[++i]);
+      } else if(args[i].equals("-iterations") && i + 1 < args.length) {
+        iterations = Integer.parseInt(args[++i]);
+      } else if(args[i].equals("-record") && i + 1 < args.length) {
+        record = args[++i];
+      } else if(args[i].equals("-check") && i + 1 < args.length) {
+        check = args[++i];
+      } else if(args[i].equals("-threshold") && i + 1 < args.length) {
+        threshold = Double.parseDouble(args[++i]);
+      } else if(args[i].equals("-spec") && i + 1 < args.length) {
+        spec = new LuaSpec(Integer.parseInt(args[++i], 16));
+      } else if(args[i].equals("-corpus") && i + 1 < args.length) {
+        corpus = new File(args[++i]);
+      } else if(args[i].equals("-nocorpus")) {
+        nocorpus = true;
+      } else if(args[i].equals("-luac")) {
+        luac = true;
+      } else if(args[i].equals("-dump") && i + 1 < args.length) {
+        dump = new File(args[++i]);
+      } else {
+        dirs.add(new File(args[i]));
+      }
+    }
+    List<Fixture> fixtures = new ArrayList<Fixture>();
+    if(!nocorpus) {
+      if(luac) {
+        corpus(fixtures, spec, corpus, dump);
+      } else if(BENCH.isDirectory()) {
+        load(fixtures, BENCH);
+      } else {
+        System.err.println("No " + BENCH.getPath() + " corpus; run with -luac -dump " + BENCH.getPath() + " where luac is available to create it");
+      }
+    }
+    for(File dir : dirs) {
+      load(fixtures, dir);
+    }
+    fixtures.add(fixture("synthetic/long1000", SyntheticChunks.longFunction(1000)));
+    fixtures.add(fixture("synthetic/long10000", SyntheticChunks.longFunction(10000)));
+    fixtures.add(fixture("synthetic/closures1000", SyntheticChunks.manyClosures(1000)));
+    Result result = run(fixtures, warmup, iterations, System.out);
+    if(record != null) {
+      Files.write(new File(record).toPath(), result.toJSON().getBytes(StandardCharsets.UTF_8));
+    }
+    if(check != null) {
+      Result baseline = Result.fromJSON(new String(Files.readAllBytes(new File(check).toPath()), StandardCharsets.UTF_8));
+      if(!check(baseline, result, threshold, System.out)) {
+        System.exit(1);
+      }
+    }
+  }
+
+  public static Result run(List<Fixture> fixtures, int warmup, int iterations, PrintStream out) throws IOException, AssemblerException {
+    out.println("fixture\tphase\tns/op\tbytes/op\tpeak");
+    Result result = new Result();
+    for(Fixture fixture : fixtures) {
+      for(Phase phase : Phase.values()) {
+        for(int i = 0; i < warmup; i++) {
+          measure(phase, fixture, new Sample());
+        }
+        Sample sample = new Sample();
+        resetPeakHeap();
+        for(int i = 0; i < iterations; i++) {
+          measure(phase, fixture, sample);
+        }
+        long peak = peakHeap();
+        int n = Math.max(iterations, 1);
+        result.time[phase.ordinal()] += sample.time / n;
+        result.allocated[phase.ordinal()] += sample.allocated / n;
+        result.peak[phase.ordinal()] = Math.max(result.peak[phase.ordinal()], peak);
+        result.present[phase.ordinal()] = true;
+        out.println(fixture.name + "\t" + phase.name + "\t" + sample.time / n + "\t" + sample.allocated / n + "\t" + peak);
+      }
+    }
+    for(Phase phase : Phase.values()) {
+      int i = phase.ordinal();
+      out.println("total\t" + phase.name + "\t" + result.time[i] + "\t" + result.allocated[i] + "\t" + result.peak[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Compares a run against a baseline, reporting every phase whose time,
+   * allocation or peak heap grew by more than the threshold factor.
+   */
+  public static boolean check(Result baseline, Result result, double threshold, PrintStream out) {
+    boolean pass = true;
+    for(Phase phase : Phase.values()) {
+      int i = phase.ordinal();
+      if(!baseline.present[i]) {
+        // a phase can't be checked against nothing; record a new baseline
+        out.println("Missing from baseline: " + phase.name);
+        pass = false;
+        continue;
+      }
+      pass &= check(phase, "time", baseline.time[i], result.time[i], threshold, out);
+      pass &= check(phase, "allocated", baseline.allocated[i], result.allocated[i], threshold, out);
+      pass &= check(phase, "peak", baseline.peak[i], result.peak[i], threshold, out);
+    }
+    out.println(pass ? "No regressions." : "Performance regressed.");
+    return pass;
+  }
+
+  private static boolean check(Phase phase, String metric, long baseline, long value, double threshold, PrintStream out) {
+    if(baseline > 0 && value > baseline * threshold) {
+      out.println("Regressed: " + phase.name + " " + metric + " " + baseline + " -> " + value + String.format(" (%.2fx)", (double) value / baseline));
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Runs one iteration of the phase over the fixture, adding the time and
+   * allocation of the phase itself to the sample (setup from earlier phases
+   * isn't counted).
+   */
+  public static void measure(Phase phase, Fixture fixture, Sample sample) throws IOException, AssemblerException {
+    if(phase == Phase.PARSE) {
+      sample.start();
+      sink = parse(fixture.chunk);
+      sample.stop();
+    } else if(phase == Phase.ASSEMBLE) {
+      sample.start();
+      sink = SyntheticChunks.assemble(fixture.listing);
+      sample.stop();
+    } else if(phase == Phase.DISASSEMBLE) {
+      LFunction main = parse(fixture.chunk);
+      sample.start();
+      new Disassembler(main).disassemble(new Output(discard));
+      sample.stop();
+    } else {
+      LFunction main = parse(fixture.chunk);
+      if(phase == Phase.FLOW) {
+        Decompiler d = new Decompiler(main);
+        Registers r = new Registers(main.maximumStackSize, main.code.length, d.declList, new Function(main), d.getNoDebug());
+        sample.start();
+        sink = ControlFlowHandler.process(d, r);
+        sample.stop();
+      } else if(phase == Phase.DECOMPILE) {
+        sample.start();
+        Decompiler d = new Decompiler(main);
+        sink = d.decompile();
+        sample.stop();
+      } else {
+        Decompiler d = new Decompiler(main);
+        Decompiler.State state = d.decompile();
+        sample.start();
+        d.print(state, new Output(discard));
+        sample.stop();
+      }
+    }
+  }
+
+  private static long allocated() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if(bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    } else {
+      return 0;
+    }
+  }
+
+  private static void resetPeakHeap() {
+    // collect first, so that the peak doesn't include earlier phases' garbage
+    System.gc();
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if(pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  private static long peakHeap() {
+    long peak = 0;
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if(pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  public static LFunction parse(byte[] chunk) {
+    ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return new BHeader(buffer, new Configuration()).main;
+  }
+
+  public static Fixture fixture(String name, String listing) throws IOException, AssemblerException {
+    return new Fixture(name, SyntheticChunks.assemble(listing), listing);
+  }
+
+  private static void load(List<Fixture> fixtures, File file) throws IOException, AssemblerException {
+    if(file.isDirectory()) {
+      File[] children = file.listFiles();
+      Arrays.sort(children);
+      for(File child : children) {
+        load(fixtures, child);
+      }
+    } else if(file.getName().endsWith(".txt")) {
+      String listing = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      fixtures.add(fixture(file.getPath(), listing));
+    } else if(file.getName().endsWith(".luac")) {
+      byte[] chunk = Files.readAllBytes(file.toPath());
+      fixtures.add(new Fixture(file.getPath(), chunk, disassemble(parse(chunk))));
+    }
+  }
+
+  /**
+   * Compiles the test files compatible with the spec, writing their
+   * listings to the dump directory if there is one. Any failure is an
+   * error rather than a skipped fixture, so that the totals of two runs
+   * always cover the same files.
+   */
+  private static void corpus(List<Fixture> fixtures, LuaSpec spec, File dir, File dump) throws IOException {
+    File out = File.createTempFile("benchmark", ".luac");
+    try {
+      if(dump != null && !dump.isDirectory() && !dump.mkdirs()) {
+        throw new IOException("Can't create directory " + dump.getPath());
+      }
+      for(TestFile test : TestFiles.tests) {
+        if(!spec.compatible(test)) continue;
+        File source = new File(dir, test.name + ".lua");
+        try {
+          LuaC.compile(spec, source.getPath(), out.getPath());
+        } catch(IOException e) {
+          throw new IOException("Can't compile the " + dir.getPath() + " corpus with " + spec.getLuaCName() + ": " + e.getMessage(), e);
+        }
+        byte[] chunk = Files.readAllBytes(out.toPath());
+        String listing = disassemble(parse(chunk));
+        if(dump != null) {
+          Files.write(new File(dump, test.name + ".txt").toPath(), listing.getBytes(StandardCharsets.UTF_8));
+        }
+        fixtures.add(new Fixture(source.getPath(), chunk, listing));
+      }
+    } finally {
+      out.delete();
+    }
+  }
+
+  private static String disassemble(LFunction main) {
+    final StringBuilder b = new StringBuilder();
+    new Disassembler(main).disassemble(new Output(new OutputProvider() {
+
+      @Override
+      public void print(String s) {
+        b.append(s);
+      }
+
+      @Override
+      public void print(byte x) {
+        b.append((char) (x & 0xFF));
+      }
+
+      @Override
+      public void println() {
+        b.append('\n');
+      }
+
+      @Override
+      public void finish() {}
+
+    }));
+    return b.toString();
+  }
+
+}
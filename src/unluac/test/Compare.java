@@ -7,7 +7,9 @@ import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 
 import unluac.Configuration;
+import unluac.Main;
 import unluac.parse.BHeader;
+import unluac.parse.LAbsLineInfo;
 import unluac.parse.LFunction;
 import unluac.parse.LLocal;
 import unluac.parse.LObject;
@@ -35,6 +37,15 @@ public class Compare {
     return function_equal(main1, main2);
   }
 
+  /**
+   * Like bytecode_equal for files, for chunks already in memory.
+   */
+  public boolean bytecode_equal(byte[] chunk1, byte[] chunk2) {
+    LFunction main1 = Main.buffer_to_function(ByteBuffer.wrap(chunk1), new Configuration());
+    LFunction main2 = Main.buffer_to_function(ByteBuffer.wrap(chunk2), new Configuration());
+    return function_equal(main1, main2);
+  }
+
   public boolean function_equal(LFunction f1, LFunction f2) {
     if(f1.maximumStackSize != f2.maximumStackSize) {
       return false;
@@ -98,23 +109,27 @@ public class Compare {
       if(f1.lastlinedefined != f2.lastlinedefined) {
         return false;
       }
-      if(f1.lines.length != f2.lines.length) {
+      int[] lines1 = f1.lineinfo.getLines();
+      int[] lines2 = f2.lineinfo.getLines();
+      LAbsLineInfo[] abslineinfo1 = f1.lineinfo.getAbsLineInfo();
+      LAbsLineInfo[] abslineinfo2 = f2.lineinfo.getAbsLineInfo();
+      if(lines1.length != lines2.length) {
         return false;
       }
-      for(int i = 0; i < f1.lines.length; i++) {
-        if(f1.lines[i] != f2.lines[i]) {
+      for(int i = 0; i < lines1.length; i++) {
+        if(lines1[i] != lines2[i]) {
           return false;
         }
       }
-      if((f1.abslineinfo == null) != (f2.abslineinfo == null)) {
+      if((abslineinfo1 == null) != (abslineinfo2 == null)) {
         return false;
       }
-      if(f1.abslineinfo != null) {
-        if(f1.abslineinfo.length != f2.abslineinfo.length) {
+      if(abslineinfo1 != null) {
+        if(abslineinfo1.length != abslineinfo2.length) {
           return false;
         }
-        for(int i = 0; i < f1.abslineinfo.length; i++) {
-          if(!f1.abslineinfo[i].equals(f2.abslineinfo[i])) {
+        for(int i = 0; i < abslineinfo1.length; i++) {
+          if(!abslineinfo1[i].equals(abslineinfo2[i])) {
             return false;
           }
         }
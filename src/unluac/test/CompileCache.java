@@ -0,0 +1,95 @@
+package unluac.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import unluac.util.HashUtils;
+
+/**
+ * Persistent cache of luac output. Entries are keyed by the source
+ * contents, the compiler name and arguments (so the strip flag), and the
+ * contents of the compiler binary itself, so rebuilding luac invalidates
+ * them. The directory comes from the unluac.test.cache property; an empty
+ * value disables the cache.
+ */
+public class CompileCache {
+
+  private static final String directory = System.getProperty("unluac.test.cache", "./test/cache/");
+
+  private static final Map<String, String> compilerHashes = new ConcurrentHashMap<String, String>();
+
+  /**
+   * Returns the cache file for compiling the given source, or null if the
+   * cache is disabled or the compiler binary can't be found.
+   */
+  public static File entry(LuaSpec spec, String luac, File source) throws IOException {
+    if(directory.isEmpty()) {
+      return null;
+    }
+    File compiler = locate(luac);
+    if(compiler == null) {
+      return null;
+    }
+    MessageDigest digest = HashUtils.sha256();
+    digest.update(Files.readAllBytes(source.toPath()));
+    digest.update((byte) 0);
+    digest.update(spec.getLuaCName().getBytes("UTF-8"));
+    for(String arg : spec.getArgs()) {
+      digest.update((byte) 0);
+      digest.update(arg.getBytes("UTF-8"));
+    }
+    digest.update((byte) 0);
+    digest.update(compilerHash(compiler).getBytes("UTF-8"));
+    return new File(directory, HashUtils.toHexString(digest.digest()) + ".luac");
+  }
+
+  public static void store(File entry, File compiled) throws IOException {
+    File dir = entry.getParentFile();
+    if(!dir.exists()) {
+      dir.mkdirs();
+    }
+    // concurrent workers may store the same entry; each writes its own temp
+    File temp = File.createTempFile("luac", ".tmp", dir);
+    try {
+      Files.copy(compiled.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      temp.delete();
+    }
+  }
+
+  private static String compilerHash(File compiler) throws IOException {
+    String key = compiler.getAbsolutePath() + "\0" + compiler.length() + "\0" + compiler.lastModified();
+    String hash = compilerHashes.get(key);
+    if(hash == null) {
+      hash = HashUtils.sha256Hex(Files.readAllBytes(compiler.toPath()));
+      compilerHashes.put(key, hash);
+    }
+    return hash;
+  }
+
+  private static File locate(String luac) {
+    File file = new File(luac);
+    if(file.isAbsolute() || luac.indexOf('/') != -1 || luac.indexOf(File.separatorChar) != -1) {
+      return file.isFile() ? file : null;
+    }
+    String path = System.getenv("PATH");
+    if(path != null) {
+      for(String dir : path.split(File.pathSeparator)) {
+        File candidate = new File(dir, luac);
+        if(candidate.isFile()) {
+          return candidate;
+        }
+      }
+    }
+    return null;
+  }
+
+  private CompileCache() {}
+
+}
@@ -0,0 +1,645 @@
+package unluac.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import unluac.Configuration;
+import unluac.Main;
+import unluac.assemble.AssemblerException;
+import unluac.decompile.CodeExtract;
+import unluac.decompile.Op;
+import unluac.decompile.OperandFormat;
+import unluac.parse.BHeader;
+import unluac.parse.BIntegerType;
+import unluac.parse.LFunction;
+import unluac.parse.LHeader;
+import unluac.parse.LLocal;
+import unluac.parse.LObject;
+import unluac.parse.LString;
+
+/**
+ * Mutates valid chunks and runs the decompiler over them, looking for
+ * inputs that take too long or use too much memory instead of failing fast.
+ * Seeds are synthetic chunks built with the assembler plus the listings
+ * (*.txt) and chunks (*.luac) in the given directories. Mutations overwrite
+ * instruction opcodes, jump offsets and register fields, the length
+ * prefixes of code, constant, function, local and upvalue lists, and string
+ * size prefixes in place, so a mutant always has its seed's length.
+ *
+ * Inputs are parsed, decompiled and printed in a worker JVM whose heap is
+ * capped with -Xmx and which is killed when it runs past the time limit.
+ * An input that exceeds either limit is minimised by restoring the seed's
+ * bytes wherever that still exceeds a limit, and is written to the output
+ * directory (test/fuzz/ by default).
+ *
+ * With -check, every chunk in the directory is run under the limits instead
+ * and the exit status is 1 if any of them still exceeds one, so stored
+ * inputs serve as performance regression tests; RunTests checks test/fuzz/
+ * this way.
+ *
+ * usage: Fuzzer [-iterations n] [-random seed] [-time ms] [-heap mb]
+ *               [-out dir] [dir...]
+ *        Fuzzer -check dir [-time ms] [-heap mb]
+ */
+public class Fuzzer {
+
+  public static final long TIME = 5000;
+  public static final int HEAP = 256;
+
+  public static enum Mutation {
+    OPCODE("opcode"),
+    JUMP("jump"),
+    REGISTER("register"),
+    LIST_LENGTH("list"),
+    STRING_SIZE("string");
+
+    public final String name;
+
+    private Mutation(String name) {
+      this.name = name;
+    }
+  }
+
+  public static enum Outcome {
+    PASS("pass"),
+    ERROR("error"),
+    TIMEOUT("timeout"),
+    HEAP("heap");
+
+    public final String name;
+
+    private Outcome(String name) {
+      this.name = name;
+    }
+
+    public boolean exceedsLimit() {
+      return this == TIMEOUT || this == HEAP;
+    }
+
+    public static Outcome get(String name) {
+      for(Outcome outcome : values()) {
+        if(outcome.name.equals(name)) return outcome;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A valid chunk and the locations in it that mutations target.
+   */
+  public static class Seed {
+
+    public final String name;
+    public final byte[] chunk;
+
+    private final BHeader header;
+    private final CodeExtract ex;
+    // {offset, index, length} of each instruction
+    private final List<int[]> instructions = new ArrayList<int[]>();
+    // {offset, width, value} of each list length and string size
+    private final List<int[]> lists = new ArrayList<int[]>();
+    private final List<int[]> strings = new ArrayList<int[]>();
+    private final Set<Integer> located = new HashSet<Integer>();
+
+    public Seed(String name, byte[] chunk) throws IOException {
+      this.name = name;
+      this.chunk = chunk;
+      LFunction main = Main.buffer_to_function(ByteBuffer.wrap(chunk), new Configuration());
+      header = main.header;
+      ex = header.extractor;
+      locate(main);
+    }
+
+    public byte[] mutate(Random random, int count) {
+      byte[] input = chunk.clone();
+      for(int i = 0; i < count; i++) {
+        mutate(Mutation.values()[random.nextInt(Mutation.values().length)], input, random);
+      }
+      return input;
+    }
+
+    public void mutate(Mutation mutation, byte[] input, Random random) {
+      switch(mutation) {
+        case OPCODE: {
+          if(instructions.isEmpty()) return;
+          int offset = pick(instructions, random)[0];
+          int codepoint = ex.op.clear(readInt(input, offset));
+          writeInt(input, offset, codepoint | ex.op.encode(random.nextInt(ex.op.max() + 1)));
+          break;
+        }
+        case JUMP: {
+          if(instructions.isEmpty()) return;
+          // prefer an actual jump, but any instruction's sBx will do
+          int[] instruction = pick(instructions, random);
+          CodeExtract.Field field = null;
+          for(int tries = 0; field == null && tries < 16; tries++) {
+            field = jumpField(readInt(input, instruction[0]));
+            if(field == null) instruction = pick(instructions, random);
+          }
+          if(field == null) field = ex.sBx;
+          int index = instruction[1];
+          int length = instruction[2];
+          int[] targets = {
+            -1, 0, 1, -index - 1, length - index, field.max(), field.extract(0),
+            random.nextInt(2 * length + 1) - length,
+          };
+          int target = targets[random.nextInt(targets.length)];
+          if(field.check(target)) {
+            int offset = instruction[0];
+            writeInt(input, offset, field.clear(readInt(input, offset)) | field.encode(target));
+          }
+          break;
+        }
+        case REGISTER: {
+          if(instructions.isEmpty()) return;
+          int offset = pick(instructions, random)[0];
+          CodeExtract.Field[] fields = {ex.A, ex.B, ex.C};
+          CodeExtract.Field field = fields[random.nextInt(fields.length)];
+          int codepoint = readInt(input, offset);
+          int[] values = {0, field.max(), field.max() - 1, field.extract(codepoint) + 1, random.nextInt(field.max() + 1)};
+          int value = values[random.nextInt(values.length)];
+          if(field.check(value)) {
+            writeInt(input, offset, field.clear(codepoint) | field.encode(value));
+          }
+          break;
+        }
+        case LIST_LENGTH: {
+          if(lists.isEmpty()) return;
+          int[] list = pick(lists, random);
+          long count = list[2];
+          long[] values = {0, count - 1, count + 1, count * 2, 0x10000, Integer.MAX_VALUE, -1, random.nextInt()};
+          overwrite(input, list, header.integer, values[random.nextInt(values.length)], random);
+          break;
+        }
+        case STRING_SIZE: {
+          if(strings.isEmpty()) return;
+          int[] string = pick(strings, random);
+          long length = string[2];
+          long[] values = {0, length + 2, length * 2, 0x1000000, Integer.MAX_VALUE, -1, random.nextInt()};
+          overwrite(input, string, header.sizeT, values[random.nextInt(values.length)], random);
+          break;
+        }
+        default:
+          throw new IllegalStateException();
+      }
+    }
+
+    private CodeExtract.Field jumpField(int codepoint) {
+      Op op = header.opmap.get(ex.op.extract(codepoint));
+      if(op == null) return null;
+      for(OperandFormat operand : op.operands) {
+        if(operand.format == OperandFormat.Format.JUMP || operand.format == OperandFormat.Format.JUMP_NEGATIVE) {
+          switch(operand.field) {
+            case sJ: return ex.sJ;
+            case Bx: return ex.Bx;
+            case sBx: return ex.sBx;
+            default: return null;
+          }
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Writes the value over a size prefix if it encodes to the prefix's
+     * width; otherwise (or for single byte prefixes) writes arbitrary bytes,
+     * which for variable length integers usually continue into the data.
+     */
+    private void overwrite(byte[] input, int[] site, BIntegerType type, long value, Random random) {
+      int offset = site[0];
+      int width = site[1];
+      byte[] bytes = new byte[16];
+      int length;
+      try {
+        length = type.encode(value, header.lheader.endianness, bytes, 0);
+      } catch(IllegalStateException e) {
+        // a value the prefix can't hold, like -1 for an unsigned size
+        length = -1;
+      }
+      if(width > 1 && length == width) {
+        System.arraycopy(bytes, 0, input, offset, width);
+      } else {
+        int[] fills = {0x00, 0x7F, 0x80, 0xFF, random.nextInt(256)};
+        int fill = fills[random.nextInt(fills.length)];
+        for(int i = 0; i < width; i++) {
+          input[offset + i] = (byte) fill;
+        }
+      }
+    }
+
+    private void locate(LFunction function) throws IOException {
+      // code is written as its length followed by fixed size instructions
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      header.integer.write(out, header, function.code.length);
+      int width = out.size();
+      byte[] instruction = new byte[4];
+      for(int codepoint : function.code) {
+        writeInt(instruction, 0, codepoint);
+        out.write(instruction);
+      }
+      if(function.code.length > 0) {
+        for(int offset : find(out.toByteArray())) {
+          lists.add(new int[] {offset, width, function.code.length});
+          for(int i = 0; i < function.code.length; i++) {
+            instructions.add(new int[] {offset + width + 4 * i, i, function.code.length});
+          }
+        }
+      }
+      if(function.constants.length > 0) {
+        out.reset();
+        header.constant.writeList(out, header, function.constants);
+        locateList(out.toByteArray(), function.constants.length);
+      }
+      if(function.functions.length > 0) {
+        out.reset();
+        header.function.writeList(out, header, function.functions);
+        locateList(out.toByteArray(), function.functions.length);
+      }
+      if(function.locals.length > 0) {
+        out.reset();
+        header.local.writeList(out, header, function.locals);
+        locateList(out.toByteArray(), function.locals.length);
+      }
+      if(function.upvalues.length > 0) {
+        out.reset();
+        header.upvalue.writeList(out, header, function.upvalues);
+        locateList(out.toByteArray(), function.upvalues.length);
+      }
+      locateString(function.name);
+      for(LObject constant : function.constants) {
+        if(constant instanceof LString) {
+          locateString((LString) constant);
+        }
+      }
+      for(LLocal local : function.locals) {
+        locateString(local.name);
+      }
+      for(LFunction child : function.functions) {
+        locate(child);
+      }
+    }
+
+    private void locateList(byte[] serialized, int count) {
+      byte[] bytes = new byte[16];
+      int width = header.integer.encode(count, header.lheader.endianness, bytes, 0);
+      for(int offset : find(serialized)) {
+        lists.add(new int[] {offset, width, count});
+      }
+    }
+
+    private void locateString(LString string) throws IOException {
+      if(string == null || string.value.isEmpty()) return;
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      header.string.write(out, header, string);
+      // 5.3 uses a one byte size for short strings and 5.4 a varint
+      int width = header.version.getVersionMinor() >= 3 ? 1 : header.sizeT.getSize();
+      for(int offset : find(out.toByteArray())) {
+        strings.add(new int[] {offset, width, string.value.length()});
+      }
+    }
+
+    /**
+     * Returns the offsets of the serialized form in the chunk that haven't
+     * been located already (sibling functions are often identical).
+     */
+    private List<Integer> find(byte[] serialized) {
+      List<Integer> offsets = new ArrayList<Integer>();
+      outer:
+      for(int offset = 0; offset + serialized.length <= chunk.length; offset++) {
+        for(int i = 0; i < serialized.length; i++) {
+          if(chunk[offset + i] != serialized[i]) continue outer;
+        }
+        if(located.add(offset)) {
+          offsets.add(offset);
+        }
+      }
+      return offsets;
+    }
+
+    private int readInt(byte[] input, int offset) {
+      int codepoint = 0;
+      for(int i = 0; i < 4; i++) {
+        int b = input[offset + i] & 0xFF;
+        if(header.lheader.endianness == LHeader.LEndianness.LITTLE) {
+          codepoint |= b << (8 * i);
+        } else {
+          codepoint = (codepoint << 8) | b;
+        }
+      }
+      return codepoint;
+    }
+
+    private void writeInt(byte[] input, int offset, int codepoint) {
+      for(int i = 0; i < 4; i++) {
+        if(header.lheader.endianness == LHeader.LEndianness.LITTLE) {
+          input[offset + i] = (byte) (codepoint >>> (8 * i));
+        } else {
+          input[offset + 3 - i] = (byte) (codepoint >>> (8 * i));
+        }
+      }
+    }
+
+    private static int[] pick(List<int[]> sites, Random random) {
+      return sites.get(random.nextInt(sites.size()));
+    }
+  }
+
+  /**
+   * Runs inputs one at a time in a separate JVM, restarting it after it is
+   * killed for running past the time limit or after it runs out of heap.
+   */
+  public static class Worker {
+
+    private static final String READY = "ready";
+    private static final String EXIT = "exit";
+
+    private final long time;
+    private final int heap;
+    private Process process;
+    private DataOutputStream in;
+    private BlockingQueue<String> replies;
+
+    public Worker(long time, int heap) {
+      this.time = time;
+      this.heap = heap;
+    }
+
+    public Outcome run(byte[] input) throws IOException, InterruptedException {
+      if(process == null) {
+        start();
+      }
+      String reply;
+      try {
+        in.writeInt(input.length);
+        in.write(input);
+        in.flush();
+        reply = replies.poll(time, TimeUnit.MILLISECONDS);
+      } catch(IOException e) {
+        // the worker exited during the previous input
+        reply = EXIT;
+      }
+      if(reply == null) {
+        stop();
+        return Outcome.TIMEOUT;
+      }
+      Outcome outcome = Outcome.get(reply);
+      if(outcome == null) {
+        // exited without answering, like on an uncaught error
+        stop();
+        return Outcome.ERROR;
+      }
+      if(outcome == Outcome.HEAP) {
+        stop();
+      }
+      return outcome;
+    }
+
+    public void stop() {
+      if(process != null) {
+        process.destroyForcibly();
+        process = null;
+      }
+    }
+
+    private void start() throws IOException, InterruptedException {
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      ProcessBuilder builder = new ProcessBuilder(java, "-Xmx" + heap + "m", "-cp", System.getProperty("java.class.path"), Fuzzer.class.getName(), "-worker");
+      final Process process = builder.start();
+      // the worker's stderr is drained and dropped, so that it never blocks
+      Thread drain = new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            InputStream err = process.getErrorStream();
+            byte[] buffer = new byte[4096];
+            while(err.read(buffer) != -1) {
+            }
+          } catch(IOException e) {
+          }
+        }
+
+      });
+      drain.setDaemon(true);
+      drain.start();
+      final BlockingQueue<String> replies = new LinkedBlockingQueue<String>();
+      Thread reader = new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while((line = reader.readLine()) != null) {
+              replies.add(line);
+            }
+          } catch(IOException e) {
+          }
+          replies.add(EXIT);
+        }
+
+      });
+      reader.setDaemon(true);
+      reader.start();
+      // startup isn't charged to the first input
+      String ready = replies.poll(60, TimeUnit.SECONDS);
+      if(!READY.equals(ready)) {
+        process.destroyForcibly();
+        throw new IOException("Fuzzer worker failed to start");
+      }
+      this.process = process;
+      this.in = new DataOutputStream(process.getOutputStream());
+      this.replies = replies;
+    }
+
+    /**
+     * The worker side: reads length-prefixed chunks from stdin and answers
+     * each with the name of its outcome.
+     */
+    static void serve() throws IOException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+      PrintStream out = System.out;
+      // keep stray diagnostics out of the replies
+      System.setOut(System.err);
+      out.println(READY);
+      out.flush();
+      while(true) {
+        byte[] input;
+        try {
+          input = new byte[in.readInt()];
+        } catch(EOFException e) {
+          return;
+        }
+        in.readFully(input);
+        Outcome outcome;
+        try {
+          Main.decompile(ByteBuffer.wrap(input), new Configuration());
+          outcome = Outcome.PASS;
+        } catch(OutOfMemoryError e) {
+          outcome = Outcome.HEAP;
+        } catch(RuntimeException | StackOverflowError e) {
+          outcome = Outcome.ERROR;
+        }
+        out.println(outcome.name);
+        out.flush();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException, AssemblerException {
+    int iterations = 10000;
+    long seed = System.currentTimeMillis();
+    long time = TIME;
+    int heap = HEAP;
+    File out = new File("./test/fuzz/");
+    File check = null;
+    List<File> dirs = new ArrayList<File>();
+    for(int i = 0; i < args.length; i++) {
+      if(args[i].equals("-worker")) {
+        Worker.serve();
+        return;
+      } else if(args[i].equals("-iterations") && i + 1 < args.length) {
+        iterations = Integer.parseInt(args[++i]);
+      } else if(args[i].equals("-random") && i + 1 < args.length) {
+        seed = Long.parseLong(args[++i]);
+      } else if(args[i].equals("-time") && i + 1 < args.length) {
+        time = Long.parseLong(args[++i]);
+      } else if(args[i].equals("-heap") && i + 1 < args.length) {
+        heap = Integer.parseInt(args[++i]);
+      } else if(args[i].equals("-out") && i + 1 < args.length) {
+        out = new File(args[++i]);
+      } else if(args[i].equals("-check") && i + 1 < args.length) {
+        check = new File(args[++i]);
+      } else {
+        dirs.add(new File(args[i]));
+      }
+    }
+    Worker worker = new Worker(time, heap);
+    boolean result;
+    try {
+      if(check != null) {
+        result = check(worker, check, System.out);
+      } else {
+        List<Seed> seeds = new ArrayList<Seed>();
+        seeds.add(new Seed("synthetic/long20", SyntheticChunks.assemble(SyntheticChunks.longFunction(20))));
+        seeds.add(new Seed("synthetic/closures10", SyntheticChunks.assemble(SyntheticChunks.manyClosures(10))));
+        for(File dir : dirs) {
+          load(seeds, dir);
+        }
+        System.out.println("random seed " + seed);
+        fuzz(worker, seeds, new Random(seed), iterations, out, System.out);
+        result = true;
+      }
+    } finally {
+      worker.stop();
+    }
+    System.exit(result ? 0 : 1);
+  }
+
+  /**
+   * Runs mutants of randomly chosen seeds, storing every input that exceeds
+   * a limit (after minimising it) in the output directory.
+   */
+  public static void fuzz(Worker worker, List<Seed> seeds, Random random, int iterations, File dir, PrintStream out) throws IOException, InterruptedException {
+    int[] counts = new int[Outcome.values().length];
+    for(int i = 0; i < iterations; i++) {
+      Seed seed = seeds.get(random.nextInt(seeds.size()));
+      byte[] input = seed.mutate(random, 1 + random.nextInt(4));
+      Outcome outcome = worker.run(input);
+      counts[outcome.ordinal()]++;
+      if(outcome.exceedsLimit()) {
+        byte[] minimal = minimise(worker, seed.chunk, input);
+        dir.mkdirs();
+        File file = new File(dir, outcome.name + "-" + String.format("%08x", Arrays.hashCode(minimal)) + ".luac");
+        if(!file.exists()) {
+          Files.write(file.toPath(), minimal);
+          out.println(outcome.name + "\t" + seed.name + "\t" + file.getPath());
+        }
+      }
+    }
+    for(Outcome outcome : Outcome.values()) {
+      out.println(outcome.name + "\t" + counts[outcome.ordinal()]);
+    }
+  }
+
+  /**
+   * Restores runs of mutated bytes, then single bytes, to the seed's values
+   * wherever the input still exceeds a limit without them.
+   */
+  public static byte[] minimise(Worker worker, byte[] seed, byte[] input) throws IOException, InterruptedException {
+    byte[] current = input.clone();
+    for(int pass = 0; pass < 2; pass++) {
+      for(int start = 0; start < current.length; start++) {
+        if(current[start] == seed[start]) continue;
+        int end = start + 1;
+        while(pass == 0 && end < current.length && current[end] != seed[end]) {
+          end++;
+        }
+        byte[] candidate = current.clone();
+        System.arraycopy(seed, start, candidate, start, end - start);
+        if(worker.run(candidate).exceedsLimit()) {
+          current = candidate;
+        } else {
+          start = end - 1;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Runs every stored chunk in the directory, reporting those that still
+   * exceed a limit.
+   */
+  public static boolean check(Worker worker, File dir, PrintStream out) throws IOException, InterruptedException {
+    boolean pass = true;
+    File[] files = dir.listFiles();
+    if(files != null) {
+      Arrays.sort(files);
+      for(File file : files) {
+        if(!file.getName().endsWith(".luac")) continue;
+        Outcome outcome = worker.run(Files.readAllBytes(file.toPath()));
+        out.println(file.getPath() + "\t" + outcome.name);
+        pass &= !outcome.exceedsLimit();
+      }
+    }
+    out.println(pass ? "No inputs exceeded the limits." : "Inputs exceeded the limits.");
+    return pass;
+  }
+
+  private static void load(List<Seed> seeds, File file) throws IOException, AssemblerException {
+    if(file.isDirectory()) {
+      File[] children = file.listFiles();
+      Arrays.sort(children);
+      for(File child : children) {
+        load(seeds, child);
+      }
+    } else if(file.getName().endsWith(".txt")) {
+      seeds.add(new Seed(file.getPath(), Main.assemble(Files.readAllBytes(file.toPath()))));
+    } else if(file.getName().endsWith(".luac")) {
+      seeds.add(new Seed(file.getPath(), Files.readAllBytes(file.toPath())));
+    }
+  }
+
+}
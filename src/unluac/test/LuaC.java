@@ -1,8 +1,11 @@
 package unluac.test;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class LuaC {
 
@@ -12,6 +15,11 @@ public class LuaC {
     if(System.getProperty("os.name").contains("Windows")) {
       luac = luac + ".exe";
     }
+    File entry = CompileCache.entry(spec, luac, new File(in));
+    if(entry != null && entry.isFile()) {
+      Files.copy(entry.toPath(), new File(out).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      return;
+    }
     String[] args = spec.getArgs();
     String[] full = new String[4 + args.length];
     int i = 0;
@@ -28,6 +36,9 @@ public class LuaC {
     while(true) {
       try {
         if(p.waitFor() == 0) {
+          if(entry != null) {
+            CompileCache.store(entry, new File(out));
+          }
           return;
         } else {
           BufferedReader r = new BufferedReader(new InputStreamReader(p.getErrorStream()));
@@ -1,12 +1,13 @@
 package unluac.test;
 
+import java.io.File;
 import java.io.IOException;
 
 import unluac.Configuration;
 
 public class RunTests {
 
-  public static void main(String[] args) throws IOException {
+  public static void main(String[] args) throws IOException, InterruptedException {
     boolean result = true;
     TestReport report = new TestReport();
     Configuration config = new Configuration();
@@ -25,6 +26,13 @@ public class RunTests {
       System.out.println();
     }
     report.report(System.out);
+    // stored fuzzer inputs must still stay under the time and heap limits
+    Fuzzer.Worker worker = new Fuzzer.Worker(Fuzzer.TIME, Fuzzer.HEAP);
+    try {
+      result = result & Fuzzer.check(worker, new File("test", "fuzz"), System.out);
+    } finally {
+      worker.stop();
+    }
     if(result) {
       System.exit(0);
     } else {
@@ -0,0 +1,200 @@
+package unluac.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Emits parameterised Lua sources that stress the decompiler at sizes the
+ * hand-written test files never reach, and compiles them with the luac of
+ * the selected version. The sources only use syntax common to Lua 5.0
+ * through 5.4. (SyntheticChunks covers the Lua 5.1 shapes that have to be
+ * built without luac.)
+ *
+ * usage: StressCorpus [-source] <version> <directory> [shape=size...]
+ * where version is 50, 51, 52, 53 or 54.
+ */
+public class StressCorpus {
+
+  public static enum Shape {
+    LONG("long", 10000),
+    IF("if", 100),
+    WHILE("while", 100),
+    CLOSURES("closures", 2000),
+    TABLE("table", 10000),
+    CONCAT("concat", 1000),
+    REGISTERS("registers", 120),
+    CONSTANTS("constants", 5000);
+
+    public final String name;
+    public final int size;
+
+    private Shape(String name, int size) {
+      this.name = name;
+      this.size = size;
+    }
+
+    public static Shape get(String name) {
+      for(Shape shape : values()) {
+        if(shape.name.equals(name)) return shape;
+      }
+      return null;
+    }
+  }
+
+  /* luac allots at most this many registers to a single concat. */
+  private static final int CONCAT_TERMS = 100;
+
+  /* Leaves room under the 250 register limit for the call below them. */
+  private static final int MAX_LOCALS = 120;
+
+  public static String source(Shape shape, int size) {
+    StringBuilder b = new StringBuilder();
+    switch(shape) {
+      case LONG:
+        // about two instructions per statement
+        b.append("local x = 0\n");
+        for(int i = 0; i < size; i++) {
+          b.append("x = x + ").append(i).append('\n');
+        }
+        b.append("print(x)\n");
+        break;
+      case IF:
+        b.append("local x = n\n");
+        for(int i = 0; i < size; i++) {
+          indent(b, i).append("if x > ").append(i).append(" then\n");
+          indent(b, i + 1).append("x = x - 1\n");
+        }
+        for(int i = size - 1; i >= 0; i--) {
+          indent(b, i + 1).append("print(x)\n");
+          indent(b, i).append("end\n");
+        }
+        break;
+      case WHILE:
+        b.append("local x = n\n");
+        for(int i = 0; i < size; i++) {
+          indent(b, i).append("while x > ").append(i).append(" do\n");
+          indent(b, i + 1).append("x = x - 1\n");
+        }
+        for(int i = size - 1; i >= 0; i--) {
+          indent(b, i + 1).append("print(x)\n");
+          indent(b, i).append("end\n");
+        }
+        break;
+      case CLOSURES:
+        for(int i = 0; i < size; i++) {
+          b.append("function f").append(i).append("(a)\n");
+          b.append("  return a + ").append(i).append('\n');
+          b.append("end\n");
+        }
+        break;
+      case TABLE:
+        b.append("t = {\n");
+        for(int i = 0; i < size; i++) {
+          if(i % 2 == 0) {
+            b.append("  ").append(i).append(",\n");
+          } else {
+            b.append("  k").append(i).append(" = \"v").append(i).append("\",\n");
+          }
+        }
+        b.append("}\n");
+        break;
+      case CONCAT:
+        b.append("local a = v\n");
+        b.append("local s = \"\"\n");
+        for(int i = 0; i < size; i += CONCAT_TERMS) {
+          b.append("s = s");
+          for(int j = i; j < Math.min(i + CONCAT_TERMS, size); j++) {
+            b.append(j % 2 == 0 ? " .. a" : " .. \"c" + j + "\"");
+          }
+          b.append('\n');
+        }
+        b.append("print(s)\n");
+        break;
+      case REGISTERS: {
+        int count = Math.min(size, MAX_LOCALS);
+        for(int i = 0; i < count; i++) {
+          b.append("local a").append(i).append(" = ").append(i).append('\n');
+        }
+        b.append("print(");
+        for(int i = 0; i < count; i++) {
+          if(i > 0) b.append(", ");
+          b.append('a').append(i);
+        }
+        b.append(")\n");
+        break;
+      }
+      case CONSTANTS:
+        b.append("local t = {}\n");
+        for(int i = 0; i < size; i++) {
+          b.append("t.k").append(i).append(" = ").append(i).append(".5\n");
+        }
+        b.append("return t\n");
+        break;
+      default:
+        throw new IllegalStateException();
+    }
+    return b.toString();
+  }
+
+  private static StringBuilder indent(StringBuilder b, int level) {
+    for(int i = 0; i < level; i++) {
+      b.append("  ");
+    }
+    return b;
+  }
+
+  public static void main(String[] args) throws IOException {
+    boolean compile = true;
+    int i = 0;
+    if(i < args.length && args[i].equals("-source")) {
+      compile = false;
+      i++;
+    }
+    if(args.length - i < 2) {
+      System.err.println("usage: StressCorpus [-source] <version> <directory> [shape=size...]");
+      System.exit(1);
+    }
+    LuaSpec spec = new LuaSpec(Integer.parseInt(args[i++], 16));
+    File dir = new File(args[i++]);
+    dir.mkdirs();
+    Shape[] shapes;
+    int[] sizes;
+    if(i < args.length) {
+      shapes = new Shape[args.length - i];
+      sizes = new int[args.length - i];
+      for(int j = 0; i < args.length; i++, j++) {
+        String[] parts = args[i].split("=", 2);
+        shapes[j] = Shape.get(parts[0]);
+        if(shapes[j] == null) {
+          System.err.println("unknown shape: " + parts[0]);
+          System.exit(1);
+        }
+        sizes[j] = parts.length > 1 ? Integer.parseInt(parts[1]) : shapes[j].size;
+      }
+    } else {
+      shapes = Shape.values();
+      sizes = new int[shapes.length];
+      for(int j = 0; j < shapes.length; j++) {
+        sizes[j] = shapes[j].size;
+      }
+    }
+    boolean result = true;
+    for(int j = 0; j < shapes.length; j++) {
+      String name = shapes[j].name + "_" + sizes[j];
+      File source = new File(dir, name + ".lua");
+      Files.write(source.toPath(), source(shapes[j], sizes[j]).getBytes(StandardCharsets.UTF_8));
+      if(compile) {
+        try {
+          LuaC.compile(spec, source.getPath(), new File(dir, name + ".luac").getPath());
+        } catch(IOException e) {
+          System.err.println(e.getMessage());
+          result = false;
+        }
+      }
+    }
+    System.exit(result ? 0 : 1);
+  }
+
+}
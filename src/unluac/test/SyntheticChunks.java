@@ -0,0 +1,98 @@
+package unluac.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import unluac.Main;
+import unluac.assemble.AssemblerException;
+
+/**
+ * Generates large Lua 5.1 chunks as assembler listings, so fixtures can be
+ * built offline with the project's own assembler instead of luac.
+ */
+public class SyntheticChunks {
+
+  /**
+   * A main function made of the given number of
+   * "x = k; if x == k' then print(x) end" blocks.
+   */
+  public static String longFunction(int blocks) {
+    StringBuilder b = new StringBuilder();
+    header(b);
+    int length = blocks * 6 + 1;
+    function(b, "main", 0, 2, 3);
+    b.append(".local\t\"x\"\t1\t").append(length - 1).append("\n\n");
+    b.append(".constant\tk0\t\"print\"\n");
+    // constants are reused so that they stay addressable as RK operands
+    int pool = Math.min(blocks + 1, 250);
+    for(int i = 1; i <= pool; i++) {
+      b.append(".constant\tk").append(i).append('\t').append(i).append('\n');
+    }
+    b.append('\n');
+    for(int i = 1; i <= blocks; i++) {
+      int end = i * 6 + 1;
+      b.append("loadk\tr0\tk").append((i - 1) % pool + 1).append('\n');
+      b.append("eq\t0\tr0\tk").append(i % pool + 1).append('\n');
+      b.append("jmp\tl").append(end).append('\n');
+      b.append("getglobal\tr1\tk0\n");
+      b.append("move\tr2\tr0\n");
+      b.append("call\tr1\t2\t1\n");
+      b.append(".label\tl").append(end).append('\n');
+    }
+    b.append("return\tr0\t1\n");
+    return b.toString();
+  }
+
+  /**
+   * A main function that assigns the given number of sibling closures to
+   * globals, each closure returning a distinct constant.
+   */
+  public static String manyClosures(int count) {
+    StringBuilder b = new StringBuilder();
+    header(b);
+    function(b, "main", 0, 2, 2);
+    for(int i = 0; i < count; i++) {
+      b.append(".constant\tk").append(i).append("\t\"f").append(i).append("\"\n");
+    }
+    b.append('\n');
+    for(int i = 0; i < count; i++) {
+      b.append("closure\tr0\tf").append(i).append('\n');
+      b.append("setglobal\tr0\tk").append(i).append('\n');
+    }
+    b.append("return\tr0\t1\n");
+    for(int i = 0; i < count; i++) {
+      b.append('\n');
+      function(b, "main/f" + i, 0, 0, 2);
+      b.append(".constant\tk0\t").append(i).append("\n\n");
+      b.append("loadk\tr0\tk0\n");
+      b.append("return\tr0\t2\n");
+      b.append("return\tr0\t1\n");
+    }
+    return b.toString();
+  }
+
+  public static byte[] assemble(String listing) throws IOException, AssemblerException {
+    return Main.assemble(listing.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void header(StringBuilder b) {
+    b.append(".version\t5.1\n\n");
+    b.append(".format\t0\n");
+    b.append(".endianness\tLITTLE\n");
+    b.append(".int_size\t4\n");
+    b.append(".size_t_size\t8\n");
+    b.append(".instruction_size\t4\n");
+    b.append(".number_format\tfloat\t8\n\n");
+  }
+
+  private static void function(StringBuilder b, String name, int numparams, int vararg, int maxstacksize) {
+    b.append(".function\t").append(name).append("\n\n");
+    b.append(".source\t").append(name.equals("main") ? "\"@synthetic\"" : "null").append('\n');
+    b.append(".linedefined\t0\n");
+    b.append(".lastlinedefined\t0\n");
+    b.append(".numparams\t").append(numparams).append('\n');
+    b.append(".is_vararg\t").append(vararg).append('\n');
+    b.append(".maxstacksize\t").append(maxstacksize).append("\n\n");
+  }
+
+}
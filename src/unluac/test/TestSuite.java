@@ -2,6 +2,17 @@ package unluac.test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import unluac.Configuration;
 import unluac.Main;
@@ -14,6 +25,12 @@ public class TestSuite {
   private static String decompiled = "unluac.out";
   private static String recompiled = "test.out";
   
+  /**
+   * Number of tests run at once; each worker gets its own scratch directory
+   * under the working directory.
+   */
+  public static int threads = Integer.getInteger("unluac.test.threads", Runtime.getRuntime().availableProcessors());
+  
   private String name;
   private String path;
   private TestFile[] files;
@@ -33,18 +50,21 @@ public class TestSuite {
     }
   }
   
-  private TestResult test(LuaSpec spec, UnluacSpec uspec, String file, Configuration config) {
+  private TestResult test(LuaSpec spec, UnluacSpec uspec, String file, Configuration config, String working_dir) {
+    byte[] original;
     try {
       LuaC.compile(spec, file, working_dir + compiled);
+      original = Files.readAllBytes(Paths.get(working_dir + compiled));
     } catch (IOException e) {
       return TestResult.SKIPPED;
     }
     try {
-      uspec.run(working_dir + compiled, working_dir + decompiled, config);
+      byte[] output = uspec.run(original, config);
+      byte[] result;
       if(!uspec.disassemble) {
-        LuaC.compile(spec, working_dir + decompiled, working_dir + recompiled);
+        result = recompile(spec, output, working_dir);
       } else {
-        Main.assemble(working_dir + decompiled, working_dir + recompiled);
+        result = Main.assemble(output);
       }
       Compare compare;
       if(!uspec.disassemble) {
@@ -52,7 +72,7 @@ public class TestSuite {
       } else {
         compare = new Compare(Compare.Mode.FULL);
       }
-      return compare.bytecode_equal(working_dir + compiled, working_dir + recompiled) ? TestResult.OK : TestResult.FAILED;
+      return compare.bytecode_equal(original, result) ? TestResult.OK : TestResult.FAILED;
     } catch (IOException e) {
       return TestResult.FAILED;
     } catch (RuntimeException e) {
@@ -64,12 +84,12 @@ public class TestSuite {
     }
   }
   
-  private TestResult testc(LuaSpec spec, UnluacSpec uspec, String file, Configuration config) {
+  private TestResult testc(LuaSpec spec, UnluacSpec uspec, String file, Configuration config, String working_dir) {
     try {
-      uspec.run(file, working_dir + decompiled, config);
-      LuaC.compile(spec, working_dir + decompiled, working_dir + recompiled);
+      byte[] original = Files.readAllBytes(Paths.get(file));
+      byte[] result = recompile(spec, uspec.run(original, config), working_dir);
       Compare compare = new Compare(Compare.Mode.NORMAL);
-      return compare.bytecode_equal(file, working_dir + recompiled) ? TestResult.OK : TestResult.FAILED;
+      return compare.bytecode_equal(original, result) ? TestResult.OK : TestResult.FAILED;
     } catch(IOException e) {
       return TestResult.FAILED;
     } catch(RuntimeException e) {
@@ -78,18 +98,67 @@ public class TestSuite {
     }
   }
   
-  public boolean run(LuaSpec spec, UnluacSpec uspec, TestReport report, Configuration base) throws IOException {
+  /**
+   * Compiles decompiled source with luac; this is the only step of a round
+   * trip that has to go through the working directory.
+   */
+  private byte[] recompile(LuaSpec spec, byte[] source, String working_dir) throws IOException {
+    Files.write(Paths.get(working_dir + decompiled), source);
+    LuaC.compile(spec, working_dir + decompiled, working_dir + recompiled);
+    return Files.readAllBytes(Paths.get(working_dir + recompiled));
+  }
+  
+  public boolean run(final LuaSpec spec, final UnluacSpec uspec, TestReport report, Configuration base) throws IOException {
     int failed = 0;
     File working = new File(working_dir);
     if(!working.exists()) {
       working.mkdir();
     }
-    for(TestFile testfile : files) {
-      if(spec.compatible(testfile)) {
-        String name = testfile.name;
-        Configuration config = configure(testfile, base);
-        TestResult result = test(spec, uspec, path + name + ext, config);
-        report.result(testName(spec, name), result);
+    int count = Math.max(threads, 1);
+    final BlockingQueue<String> scratch = new ArrayBlockingQueue<String>(count);
+    for(int i = 0; i < count; i++) {
+      File dir = new File(working, "worker" + i);
+      if(!dir.exists()) {
+        dir.mkdir();
+      }
+      scratch.add(working_dir + dir.getName() + "/");
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(count);
+    List<String> names = new ArrayList<String>();
+    List<Future<TestResult>> results = new ArrayList<Future<TestResult>>();
+    try {
+      for(TestFile testfile : files) {
+        if(spec.compatible(testfile)) {
+          final String name = testfile.name;
+          final Configuration config = configure(testfile, base);
+          names.add(name);
+          results.add(pool.submit(new Callable<TestResult>() {
+            
+            @Override
+            public TestResult call() throws InterruptedException {
+              String dir = scratch.take();
+              try {
+                return test(spec, uspec, path + name + ext, config, dir);
+              } finally {
+                scratch.put(dir);
+              }
+            }
+            
+          }));
+        }
+      }
+      // results are reported in submission order, whatever order they finish in
+      for(int i = 0; i < results.size(); i++) {
+        TestResult result;
+        try {
+          result = results.get(i).get();
+        } catch(InterruptedException e) {
+          throw new IOException(e);
+        } catch(ExecutionException e) {
+          e.getCause().printStackTrace();
+          result = TestResult.FAILED;
+        }
+        report.result(testName(spec, names.get(i)), result);
         switch(result) {
           case OK:
             System.out.print(".");
@@ -102,6 +171,8 @@ public class TestSuite {
             failed++;
         }
       }
+    } finally {
+      pool.shutdownNow();
     }
     return failed == 0;
   }
@@ -124,9 +195,9 @@ public class TestSuite {
       }
       TestResult result;
       if(!compiled) {
-        result = test(spec, uspec, full, config);
+        result = test(spec, uspec, full, config, working_dir);
       } else {
-        result = testc(spec, uspec, full, config);
+        result = testc(spec, uspec, full, config, working_dir);
       }
       switch(result) {
         case OK:
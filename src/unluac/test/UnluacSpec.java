@@ -1,6 +1,7 @@
 package unluac.test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import unluac.Configuration;
 import unluac.Main;
@@ -19,6 +20,14 @@ public class UnluacSpec {
     }
   }
   
+  public byte[] run(byte[] in, Configuration config) {
+    if(!disassemble) {
+      return Main.decompile(ByteBuffer.wrap(in), config);
+    } else {
+      return Main.disassemble(ByteBuffer.wrap(in));
+    }
+  }
+  
   public boolean disassemble;
   
 }
@@ -16,7 +16,13 @@ import java.nio.charset.CoderResult;
 public class FileUtils {
 
   public static InputStream createSmartTextFileReader(File file) throws IOException {
-    BufferedInputStream input = new BufferedInputStream(new FileInputStream(file));
+    return createSmartTextReader(new BufferedInputStream(new FileInputStream(file)));
+  }
+  
+  /**
+   * Like createSmartTextFileReader, for an input stream that supports mark.
+   */
+  public static InputStream createSmartTextReader(InputStream input) throws IOException {
     byte[] header = new byte[2];
     int header_length = 0;
     input.mark(header.length);
@@ -0,0 +1,42 @@
+package unluac.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The SHA-256 digests, in hex, that identify chunks, map files and
+ * configurations in the caches and the incremental manifest.
+ */
+public class HashUtils {
+
+  public static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static String sha256Hex(byte[] content) {
+    return toHexString(sha256().digest(content));
+  }
+
+  public static String toHexString(byte[] bytes) {
+    return toHexString(bytes, bytes.length);
+  }
+
+  /**
+   * The first length bytes in hex.
+   */
+  public static String toHexString(byte[] bytes, int length) {
+    StringBuilder b = new StringBuilder(length * 2);
+    for(int i = 0; i < length; i++) {
+      b.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+      b.append(Character.forDigit(bytes[i] & 0xF, 16));
+    }
+    return b.toString();
+  }
+
+  private HashUtils() {}
+
+}
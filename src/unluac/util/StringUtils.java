@@ -43,6 +43,32 @@ public class StringUtils {
     return b.toString();
   }
   
+  public static String toJSONString(String s) {
+    if(s == null) return "null";
+    StringBuilder b = new StringBuilder(s.length() + 2);
+    b.append('"');
+    for(int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if(c == '"') {
+        b.append("\\\"");
+      } else if(c == '\\') {
+        b.append("\\\\");
+      } else if(c >= 32 && c < 127) {
+        b.append(c);
+      } else if(c == '\n') {
+        b.append("\\n");
+      } else if(c == '\t') {
+        b.append("\\t");
+      } else if(c == '\r') {
+        b.append("\\r");
+      } else {
+        b.append(String.format("\\u%04x", (int) c));
+      }
+    }
+    b.append('"');
+    return b.toString();
+  }
+  
   public static String fromPrintString(String s) {
     if(s.equals("null")) return null;
     if(s.charAt(0) != '"') throw new IllegalStateException("Bad string " + s);